@@ -0,0 +1,72 @@
+package frc.robot;
+
+/**
+ * Converts the raw values of one evdev axis to WPILib's -1 to 1 range, with a
+ * deadband around the center. Built once per axis from its min, max and flat;
+ * axes with up to 12 bits of resolution are converted by a single table lookup.
+ */
+final class AxisNormalizer {
+  /* Axes with at most this many distinct values are converted through a table */
+  static final int kMaxTableSize = 4096;
+
+  /* Deadbands are limited to this, so there is always some travel left */
+  static final double kMaxDeadband = 0.95;
+
+  private final int m_min;
+  private final int m_max;
+  private final double m_center;
+  private final double m_scale;
+  private final double m_deadband;
+
+  /* Normalized value of each raw value from m_min to m_max, or null if too many */
+  private final double[] m_table;
+
+  /**
+   * @param min      The smallest value the axis reports
+   * @param max      The largest value the axis reports
+   * @param flat     Values within this distance of the center are reported as 0
+   * @param deadband Normalized values closer than this to 0 are reported as 0,
+   *                 if it is wider than flat
+   */
+  AxisNormalizer(int min, int max, int flat, double deadband) {
+    m_min = min;
+    m_max = max;
+    m_center = ((double) min + max) / 2;
+    double halfRange = ((double) max - min) / 2;
+    m_scale = halfRange > 0 ? 1 / halfRange : 0;
+    m_deadband = Math.min(Math.max(flat * m_scale, deadband), kMaxDeadband);
+
+    long size = (long) max - min + 1;
+    if (size > 0 && size <= kMaxTableSize) {
+      m_table = new double[(int) size];
+      for (int i = 0; i < m_table.length; i++) {
+        m_table[i] = compute(min + i);
+      }
+    } else {
+      m_table = null;
+    }
+  }
+
+  /**
+   * @param value A raw value reported by the axis
+   * @return The value scaled to -1 to 1, with the deadband applied
+   */
+  double normalize(int value) {
+    if (value < m_min) {
+      value = m_min;
+    } else if (value > m_max) {
+      value = m_max;
+    }
+    return m_table != null ? m_table[value - m_min] : compute(value);
+  }
+
+  private double compute(int value) {
+    double normalized = (value - m_center) * m_scale;
+    if (Math.abs(normalized) <= m_deadband) {
+      return 0;
+    }
+    /* Start again from 0 at the edge of the deadband, so there is no jump there */
+    normalized = (normalized - Math.copySign(m_deadband, normalized)) / (1 - m_deadband);
+    return Math.max(-1, Math.min(1, normalized));
+  }
+}
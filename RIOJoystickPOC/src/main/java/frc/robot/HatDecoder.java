@@ -0,0 +1,36 @@
+package frc.robot;
+
+/**
+ * Converts the normalized X and Y axes of an evdev hat (D-pad) to the POV angle
+ * WPILib reports for it.
+ */
+final class HatDecoder {
+  /*
+   * WPILib POV angle for each direction a hat can point, indexed by
+   * (x + 1) * 3 + (y + 1), where x and y are -1, 0 or 1 and negative y is up
+   */
+  private static final int[] kHatAngles = {
+      315, 270, 225, // Left
+      0, -1, 180, // Centered horizontally
+      45, 90, 135 // Right
+  };
+
+  private HatDecoder() {
+  }
+
+  /**
+   * @param x The hat's normalized X axis, negative to the left
+   * @param y The hat's normalized Y axis, negative up
+   * @return The angle in degrees clockwise from up, or -1 if the hat is centered
+   */
+  static int povAngle(double x, double y) {
+    return kHatAngles[position(x) * 3 + position(y)];
+  }
+
+  /*
+   * Position (0, 1 or 2) of a hat axis in kHatAngles, from its normalized value
+   */
+  private static int position(double value) {
+    return value < -0.5 ? 0 : (value > 0.5 ? 2 : 1);
+  }
+}
@@ -1,62 +1,244 @@
 package frc.robot;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
+import com.dgis.input.evdev.CapabilityCache;
+import com.dgis.input.evdev.DeviceCapabilities;
+import com.dgis.input.evdev.DeviceConnectionListener;
+import com.dgis.input.evdev.DeviceSelector;
+import com.dgis.input.evdev.DeviceWatcher;
 import com.dgis.input.evdev.EventDevice;
+import com.dgis.input.evdev.InputDeviceInfo;
+import com.dgis.input.evdev.InputDeviceListener;
 import com.dgis.input.evdev.InputEvent;
 import com.dgis.input.evdev.InputListener;
+import com.dgis.input.evdev.devices.RumbleOutput;
 
 import edu.wpi.first.wpilibj.GenericHID;
 
-public abstract class RIOGenericHID extends GenericHID implements InputListener {
+public abstract class RIOGenericHID extends GenericHID
+    implements InputListener, DeviceConnectionListener, InputDeviceListener {
 
   /*
-   * Event Device for the USB Joystick/gamepad device created in the constructor
+   * The same controllers are plugged in every boot, so remember their
+   * capabilities in the robot user's home directory rather than probing them
+   * each time a device is opened
    */
-  private EventDevice m_device;
+  static final String kCapabilityCachePath = "/home/lvuser/evdev-capabilities.bin";
+
+  static {
+    EventDevice.setCapabilityCache(new CapabilityCache(kCapabilityCachePath));
+  }
+
+  /*
+   * Event Device for the USB Joystick/gamepad device created in the constructor,
+   * replaced if the device comes back under a different event node
+   */
+  private volatile EventDevice m_device;
+
+  /*
+   * Picks out our device among those in /dev/input, used to find it when it is
+   * plugged (back) in
+   */
+  private DeviceSelector m_selector;
 
   /*
-   * Holds the event codes for each joystick button, in order. That is, if event
-   * code 288 is button one, it is the first entry here.
+   * Set when bind() closed m_device but couldn't open its replacement, so
+   * m_device will never reconnect by itself
    */
-  private ArrayList<Integer> m_buttonEventCodes = new ArrayList<Integer>();
+  private boolean m_deviceClosed;
 
   /*
-   * Holds the event codes for each joystick axis, in order. That is, if event
-   * code 0 is axis one, it is the first entry here.
+   * Convert each axis' raw values to -1..1, as they arrive. Replaced, never
+   * modified, when the deadband changes.
    */
-  private ArrayList<Integer> m_axisEventCodes = new ArrayList<Integer>();
+  private volatile AxisNormalizer[] m_axisNormalizers = new AxisNormalizer[0];
 
-  /* Count of axes and buttons on this input device */
-  int m_axesCount;
-  int m_buttonsCount;
+  /* Deadband given to setDeadband(), applied on top of each axis' own flat zone */
+  private double m_deadband;
+
+  /* evdev has up to four hats, each an X and Y axis starting at ABS_HAT0X */
+  private static final int kMaxHats = 4;
+
+  /*
+   * The button, axis and POV mappings and states of the open device. Replaced
+   * as a whole once a device is found, and only published after being built, so
+   * the robot thread sees either no device or all of one. Until then it has no
+   * buttons, axes or POVs.
+   */
+  private volatile DeviceState m_state = new DeviceState(new int[0], new int[0], new short[0], new short[0]);
 
   /*
-   * Record the state of buttons and axes as they change so we can return values
-   * whenever the robot code requests one
+   * Set by SYN_DROPPED: the kernel lost events, so the changes until the next
+   * SYN_REPORT are incomplete and must be thrown away
    */
-  private int m_axisStates[];
-  private boolean m_buttonStates[];
+  private boolean m_dropFrame;
 
   /*
-   * Record any observed button presses or releases, cleared when the robot code
-   * reads them via getRawButtonPressed()
+   * Sequence lock over the published states in m_state, so the robot thread
+   * never sees half of one set of changes and half of another (e.g. a new X with
+   * an old Y) and never waits for the reader thread. Odd while a set of changes
+   * is being published; a reader retries if it was odd or changed during the
+   * read.
    */
-  private boolean[] m_buttonPressed, m_buttonReleased;
+  private volatile int m_frameSeq;
 
-  /* Device number given to the constructor */
+  /* Serializes publishing, which also happens when the device is lost or rebound */
+  private final Object m_publishLock = new Object();
+
+  /* Device number given to the constructor, or -1 if given a selector */
   private int m_deviceNum;
 
   /* Rumble and LED output last set states */
   private int m_outputs;
-  @SuppressWarnings("unused")
   private short m_leftRumble;
-  @SuppressWarnings("unused")
   private short m_rightRumble;
 
+  /*
+   * Writes the rumble to the device through force feedback, off the robot
+   * thread. Null if the device can't rumble.
+   */
+  private volatile RumbleOutput m_rumble;
+
+  /*
+   * Event codes of the device's LEDs, in increasing order. Output one drives the
+   * first of them, and so on.
+   */
+  private int[] m_outputEventCodes;
+
+  /*
+   * The outputs as last written to the device, so only changed bits are written.
+   * Not valid until the first write, or after a rebind or reconnect.
+   */
+  private int m_writtenOutputs;
+  private boolean m_writtenOutputsValid;
+  private boolean m_outputWarned;
+
+  /* Reused to batch the changed outputs into one write */
+  private int[] m_outputCodes, m_outputValues;
+
+  /* Guards m_outputs and the write state above */
+  private final Object m_outputLock = new Object();
+
+  /*
+   * Everything sized and mapped from the capabilities of one kind of device
+   */
+  private static final class DeviceState {
+    /*
+     * The event codes of each joystick button and axis, in increasing order. That
+     * is, if event code 288 is button one, it is the first entry here.
+     */
+    final int[] buttonEventCodes, axisEventCodes;
+
+    /*
+     * Map each event code to its button or axis index, or -1, so handling an
+     * event needs no search
+     */
+    final short[] buttonIndexes, axisIndexes;
+
+    /* Count of axes, buttons and hats on this input device */
+    final int axesCount, buttonsCount, povCount;
+
+    /*
+     * Indexes of the X and Y axes of each hat (D-pad), or -1 for an axis the hat
+     * doesn't have
+     */
+    final int[] hatXAxes = new int[kMaxHats], hatYAxes = new int[kMaxHats];
+
+    /*
+     * The state of buttons and axes as of the last complete set of changes (ended
+     * by SYN_REPORT), so we can return values whenever the robot code requests
+     * one, and the angle of each hat, decoded from its axes. Only changed while
+     * m_frameSeq is odd.
+     */
+    final double[] axisStates;
+    final boolean[] buttonStates;
+    final int[] povStates;
+
+    /*
+     * The state being built from the changes since the last SYN_REPORT. Only used
+     * by the thread delivering events.
+     */
+    final double[] stagedAxes;
+    final boolean[] stagedButtons;
+
+    /*
+     * Presses and releases seen since the last SYN_REPORT, added to the counts
+     * only once their set of changes is published, and forgotten if it is thrown
+     * away. Only used by the thread delivering events.
+     */
+    final int[] stagedPresses, stagedReleases;
+    boolean edgesStaged;
+
+    /*
+     * Count every observed button press and release, so a tap that starts and
+     * ends between two reads by the robot code is still seen. Only ever
+     * incremented, as each set of changes is published.
+     */
+    final AtomicIntegerArray buttonPressCounts, buttonReleaseCounts;
+
+    /*
+     * The counts as of the robot code's last getRawButtonPressed()/Released() or
+     * getRawButtonPressCount()/ReleaseCount(). Only used by the robot thread.
+     */
+    final int[] buttonPressesRead, buttonReleasesRead;
+
+    DeviceState(int[] buttonEventCodes, int[] axisEventCodes, short[] buttonIndexes, short[] axisIndexes) {
+      this.buttonEventCodes = buttonEventCodes;
+      this.axisEventCodes = axisEventCodes;
+      this.buttonIndexes = buttonIndexes;
+      this.axisIndexes = axisIndexes;
+      axesCount = axisEventCodes.length;
+      buttonsCount = buttonEventCodes.length;
+      povCount = findHats();
+
+      axisStates = new double[axesCount];
+      buttonStates = new boolean[buttonsCount];
+      povStates = new int[povCount];
+      stagedAxes = new double[axesCount];
+      stagedButtons = new boolean[buttonsCount];
+      stagedPresses = new int[buttonsCount];
+      stagedReleases = new int[buttonsCount];
+      buttonPressCounts = new AtomicIntegerArray(buttonsCount);
+      buttonReleaseCounts = new AtomicIntegerArray(buttonsCount);
+      buttonPressesRead = new int[buttonsCount];
+      buttonReleasesRead = new int[buttonsCount];
+      for (int i = 0; i < povCount; i++) {
+        povStates[i] = -1;
+      }
+    }
+
+    /*
+     * Find the hats (D-pads) among the supported axes. Their axes also stay
+     * available as ordinary axes.
+     *
+     * @return The number of hats found
+     */
+    private int findHats() {
+      int count = 0;
+      for (int hat = 0; hat < kMaxHats; hat++) {
+        int x = DeviceCapabilities.lookup(axisIndexes, (short) (InputEvent.ABS_HAT0X + 2 * hat));
+        int y = DeviceCapabilities.lookup(axisIndexes, (short) (InputEvent.ABS_HAT0Y + 2 * hat));
+        if (x >= 0 || y >= 0) {
+          hatXAxes[count] = x;
+          hatYAxes[count] = y;
+          count++;
+        }
+      }
+      return count;
+    }
+
+    /*
+     * Staged value of a hat axis, or 0 (centered) for an axis the hat doesn't have
+     */
+    double hatValue(int axis) {
+      return axis < 0 ? 0 : stagedAxes[axis];
+    }
+  }
+
   /**
    * Create an object for a generic Human Interface Device (HID) plugged into the
    * RoboRIO
@@ -70,52 +252,344 @@ public abstract class RIOGenericHID extends GenericHID implements InputListener
 
     m_deviceNum = deviceNum;
     setupDevice("/dev/input/event" + deviceNum);
+    if (m_device != null) {
+      watchForDevice(DeviceSelector.sameDeviceAs(InputDeviceInfo.describe(m_device)));
+    }
+  }
+
+  /**
+   * Create an object for a generic Human Interface Device (HID) plugged into the
+   * RoboRIO, picked by what it is rather than by which event node it was given.
+   * If no such device is plugged in yet, it is opened as soon as one is.
+   *
+   * @param selector Which device to open, e.g. byVendorProduct(0x045e, 0x028e)
+   */
+  public RIOGenericHID(DeviceSelector selector) {
+    super(0);
+
+    m_deviceNum = -1;
+    DeviceWatcher watcher = watchForDevice(selector);
+    InputDeviceInfo info = watcher == null ? null : watcher.find(selector);
+    if (info != null) {
+      bind(info.getPath());
+    } else {
+      System.err.println("WARN: no device with " + selector + " plugged in, waiting for one");
+    }
+  }
+
+  /**
+   * Select a device by USB vendor and product ID, e.g. 0x045e, 0x028e for an Xbox
+   * 360 controller.
+   */
+  public static DeviceSelector byVendorProduct(int vendorID, int productID) {
+    return DeviceSelector.byVendorProduct(vendorID, productID);
+  }
+
+  /**
+   * Select a device by the name it reports.
+   */
+  public static DeviceSelector byName(String name) {
+    return DeviceSelector.byName(name);
+  }
+
+  /**
+   * Select a device by the port it is plugged into, e.g.
+   * usb-ci_hdrc.0-1.2/input0, to tell identical controllers apart.
+   */
+  public static DeviceSelector byPhys(String phys) {
+    return DeviceSelector.byPhys(phys);
+  }
+
+  /**
+   * Select a device by its serial number, for devices that report one.
+   */
+  public static DeviceSelector byUniq(String uniq) {
+    return DeviceSelector.byUniq(uniq);
   }
 
   /*
-   * Handle one-time set up steps for opening an EventDevice by pathname
+   * Handle one-time set up steps for opening an EventDevice by pathname. Also
+   * used for a replacement device, which a selector may pick from another kind
+   * of controller, so nothing sized or mapped for the previous device is kept.
+   *
+   * @return false if the device couldn't be opened
    */
-  private void setupDevice(String devicePath) {
+  private boolean setupDevice(String devicePath) {
+    EventDevice device;
     try {
-      m_device = new EventDevice(devicePath);
+      device = new EventDevice(devicePath);
     } catch (IOException e) {
       e.printStackTrace();
+      return false;
+    }
+
+    DeviceCapabilities capabilities = device.getCapabilities();
+    DeviceState state = new DeviceState(capabilities.getCodes(InputEvent.EV_KEY),
+        capabilities.getCodes(InputEvent.EV_ABS), capabilities.buildIndexTable(InputEvent.EV_KEY),
+        capabilities.buildIndexTable(InputEvent.EV_ABS));
+
+    System.out.printf("RIOGenericHID: found %d axes and %d buttons\n", state.axesCount, state.buttonsCount);
+
+    RumbleOutput rumble = m_rumble;
+    if (!capabilities.supports(InputEvent.EV_FF, InputEvent.FF_RUMBLE)) {
+      if (rumble != null) {
+        m_rumble = null;
+        rumble.close();
+      }
+    } else if (rumble != null) {
+      /* Carries over the rumble (or pulse or ramp) it was playing */
+      rumble.setDevice(device);
+    } else {
+      m_rumble = new RumbleOutput(device);
+      /* Catch up with any rumble set while there was no device to play it */
+      writeRumble();
+    }
+    int[] ledCodes = capabilities.getCodes(InputEvent.EV_LED);
+    synchronized (m_outputLock) {
+      m_outputEventCodes = Arrays.copyOf(ledCodes, Math.min(ledCodes.length, 32));
+      m_outputCodes = new int[m_outputEventCodes.length];
+      m_outputValues = new int[m_outputEventCodes.length];
+    }
+
+    /*
+     * Have the kernel drop every event type we ignore (e.g. EV_MSC scan codes)
+     * before it is read. EV_SYN is kept since it separates sets of changes.
+     */
+    device.setEventTypeMask(InputEvent.EV_SYN, InputEvent.EV_KEY, InputEvent.EV_ABS);
+    /*
+     * And be its only reader, so a keyboard or gamepad doesn't also wake (and
+     * drive) the console or anything else on the RoboRIO
+     */
+    device.setExclusive(true);
+
+    /* Everything is built; let the robot thread see it */
+    m_axisNormalizers = buildNormalizers(device, state.axisEventCodes);
+    m_device = device;
+    m_state = state;
+    /*
+     * Start from where everything is now, e.g. a trigger at rest at -1 rather
+     * than half pulled until it first moves
+     */
+    resyncFrame(device);
+
+    /* Call the event() method (below) each time an input change is detected */
+    device.addListener(this);
+    /* And deviceDisconnected()/deviceReconnected() if the device is unplugged */
+    device.addConnectionListener(this);
+    /* Light the LEDs set before there was a device, or on the one it replaces */
+    rewriteOutputs();
+    return true;
+  }
+
+  /*
+   * After a brown-out or a replug the device may re-enumerate under a different
+   * event node, which reopening the old path will never find. Have the shared
+   * DeviceWatcher tell us (in deviceAdded(), below) when it reappears anywhere.
+   */
+  private DeviceWatcher watchForDevice(DeviceSelector selector) {
+    m_selector = selector;
+    try {
+      DeviceWatcher watcher = DeviceWatcher.getDefault();
+      watcher.addListener(this);
+      return watcher;
+    } catch (IOException e) {
+      System.err.println("WARN: can't watch for device with " + selector + " being plugged in: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /*
+   * Open the selected device found at devicePath if we have none yet, or switch
+   * over to it if ours is lost
+   */
+  private synchronized void bind(String devicePath) {
+    EventDevice oldDevice = m_device;
+    if (oldDevice == null) {
+      setupDevice(devicePath);
       return;
     }
+    if (oldDevice.isConnected()) {
+      return;
+    }
+    if (!m_deviceClosed && devicePath.equals(oldDevice.getDevicePath())) {
+      /*
+       * Back at the same node, where the old device's own reconnect finds it. A
+       * second EventDevice would deliver every event twice, and could not grab it.
+       */
+      return;
+    }
+    /* Stop the old device's reconnect attempts before it could come back too */
+    oldDevice.close();
+    m_deviceClosed = true;
+    if (!setupDevice(devicePath)) {
+      return;
+    }
+    m_deviceClosed = false;
+    System.err.println("RIOGenericHID: rebound " + m_device.getDeviceName() + " to " + devicePath);
+  }
 
-    Map<Integer, List<Integer>> supportedEvents = m_device.getSupportedEvents();
-    List<Integer> supportedAxes = supportedEvents.get((int) InputEvent.EV_ABS);
-    List<Integer> supportedKeys = supportedEvents.get((int) InputEvent.EV_KEY);
+  /*
+   * Prepare the conversion of each axis from the range and flat zone the device
+   * reports for it
+   */
+  private AxisNormalizer[] buildNormalizers(EventDevice device, int[] axisEventCodes) {
+    AxisNormalizer[] normalizers = new AxisNormalizer[axisEventCodes.length];
+    int[] absInfo = new int[6];
+    for (int i = 0; i < axisEventCodes.length; i++) {
+      device.getProbedAbsInfo(axisEventCodes[i], absInfo);
+      /* absInfo holds value, min, max, fuzz, flat, resolution */
+      normalizers[i] = new AxisNormalizer(absInfo[1], absInfo[2], absInfo[4], m_deadband);
+    }
+    return normalizers;
+  }
 
-    m_axesCount = supportedAxes == null ? 0 : supportedAxes.size();
-    m_buttonsCount = supportedKeys == null ? 0 : supportedKeys.size();
+  /**
+   * Set the deadband applied to every axis, on top of any flat zone the device
+   * reports. Takes effect for each axis the next time it moves.
+   *
+   * @param deadband Axis values closer than this to 0 are reported as 0, and the
+   *                 rest are scaled to still cover -1 to 1
+   */
+  public synchronized void setDeadband(double deadband) {
+    m_deadband = deadband;
+    EventDevice device = m_device;
+    if (device != null) {
+      m_axisNormalizers = buildNormalizers(device, m_state.axisEventCodes);
+    }
+  }
 
-    System.out.printf("RIOGenericHID: found %d axes and %d buttons\n", m_axesCount, m_buttonsCount);
+  /*
+   * Initialize the values of all axes to the midpoint between max and min
+   * possible values, so a lost device leaves nothing deflected. Buttons are set
+   * to the unpressed state, counting a release for any that were held so presses
+   * and releases stay paired.
+   */
+  private void resetState() {
+    synchronized (m_publishLock) {
+      DeviceState state = m_state;
+      Arrays.fill(state.stagedAxes, 0);
+      for (int i = 0; i < state.buttonsCount; i++) {
+        if (state.stagedButtons[i]) {
+          state.stagedReleases[i]++;
+          state.edgesStaged = true;
+        }
+        state.stagedButtons[i] = false;
+      }
+      m_dropFrame = false;
+      publishFrame();
+    }
+  }
 
-    m_buttonEventCodes.addAll(supportedKeys);
-    m_axisEventCodes.addAll(supportedAxes);
+  /*
+   * Make the staged state visible to the robot thread, all at once
+   */
+  private void publishFrame() {
+    synchronized (m_publishLock) {
+      DeviceState state = m_state;
+      int seq = m_frameSeq;
+      m_frameSeq = seq + 1;
+      /* Keep the copies below from being reordered before the odd sequence number */
+      VarHandle.storeStoreFence();
+      System.arraycopy(state.stagedAxes, 0, state.axisStates, 0, state.axesCount);
+      System.arraycopy(state.stagedButtons, 0, state.buttonStates, 0, state.buttonsCount);
+      for (int i = 0; i < state.povCount; i++) {
+        state.povStates[i] = HatDecoder.povAngle(state.hatValue(state.hatXAxes[i]), state.hatValue(state.hatYAxes[i]));
+      }
+      /* Counted after the states are copied, so a counted press is never ahead of getRawButton() */
+      if (state.edgesStaged) {
+        for (int i = 0; i < state.buttonsCount; i++) {
+          if (state.stagedPresses[i] != 0) {
+            state.buttonPressCounts.addAndGet(i, state.stagedPresses[i]);
+            state.stagedPresses[i] = 0;
+          }
+          if (state.stagedReleases[i] != 0) {
+            state.buttonReleaseCounts.addAndGet(i, state.stagedReleases[i]);
+            state.stagedReleases[i] = 0;
+          }
+        }
+        state.edgesStaged = false;
+      }
+      m_frameSeq = seq + 2;
+    }
+  }
 
-    System.out.println("Detected " + m_buttonEventCodes.size() + " buttons and " + m_axisEventCodes.size() + " axes.");
+  /*
+   * Throw away staged changes, going back to the last published state
+   */
+  private void discardFrame() {
+    synchronized (m_publishLock) {
+      DeviceState state = m_state;
+      System.arraycopy(state.axisStates, 0, state.stagedAxes, 0, state.axesCount);
+      System.arraycopy(state.buttonStates, 0, state.stagedButtons, 0, state.buttonsCount);
+      Arrays.fill(state.stagedPresses, 0);
+      Arrays.fill(state.stagedReleases, 0);
+      state.edgesStaged = false;
+    }
+  }
 
-    m_axisStates = new int[m_axesCount];
-    m_buttonStates = new boolean[m_buttonsCount];
-    m_buttonPressed = new boolean[m_buttonsCount];
-    m_buttonReleased = new boolean[m_buttonsCount];
+  /*
+   * Replace the staged state with the device's current state, asked of the
+   * kernel, and publish it. For when the events describing some changes were
+   * lost (SYN_DROPPED, or the device was away), so a button released or a stick
+   * let go meanwhile doesn't stay held until it is touched again. Only called
+   * from the thread delivering the device's events, or before they are
+   * delivered to us.
+   */
+  private void resyncFrame(EventDevice device) {
+    synchronized (m_publishLock) {
+      discardFrame();
+      DeviceState state = m_state;
+      long[] keys = new long[EventDevice.BITMAP_LONGS];
+      if (device.readKeyStates(keys)) {
+        for (int i = 0; i < state.buttonsCount; i++) {
+          int code = state.buttonEventCodes[i];
+          handleButton((short) code, (keys[code / 64] >>> (code % 64) & 1) != 0);
+        }
+      }
+      int[] absInfo = new int[EventDevice.ABSINFO_INTS];
+      for (int i = 0; i < state.axesCount; i++) {
+        if (device.readAbsInfo(state.axisEventCodes[i], absInfo)) {
+          handleAxis((short) state.axisEventCodes[i], absInfo[0]);
+        }
+      }
+      m_dropFrame = false;
+      publishFrame();
+    }
+  }
 
+  @Override
+  public void deviceDisconnected(EventDevice device) {
     /*
-     * Initialize the starting values of all axis to the midpoint between max and
-     * min possible values. Buttons are initialized to the unpressed state.
+     * Nothing will be reported until the device comes back, so don't leave a
+     * button held down or a stick deflected in the meantime
      */
-    for (int i = 0; i < m_axesCount; i++) {
-      // int axisCode = m_axisEventCodes.get(i);
-      // m_axisStates[i] = (m_device.getAxisParameters(axisCode).getMax() - m_device.getAxisParameters(axisCode).getMin()) / 2;
-      m_axisStates[i] = 127;
+    System.err.println("RIOGenericHID: lost " + device.getDevicePath());
+    resetState();
+  }
+
+  @Override
+  public void deviceReconnected(EventDevice device) {
+    System.err.println("RIOGenericHID: reconnected " + device.getDevicePath());
+    /* Buttons held or sticks deflected while it was away were never reported */
+    resyncFrame(device);
+    /*
+     * But the LEDs came back in their default state. (The rumble is re-sent by
+     * m_rumble, which listens for the reconnect itself.)
+     */
+    rewriteOutputs();
+  }
+
+  @Override
+  public void deviceAdded(InputDeviceInfo info) {
+    EventDevice device = m_device;
+    if (m_selector.matches(info) && (device == null || !device.isConnected())) {
+      bind(info.getPath());
     }
-    for (int i = 0; i < m_buttonsCount; i++)
-      m_buttonStates[i] = m_buttonPressed[i] = m_buttonReleased[i] = false;
+  }
 
-    /* Call the event() method (below) each time an input change is detected */
-    m_device.addListener(this);
+  @Override
+  public void deviceRemoved(InputDeviceInfo info) {
+    /* deviceDisconnected() handles our own device going away */
   }
 
   @Override
@@ -133,11 +607,22 @@ public abstract class RIOGenericHID extends GenericHID implements InputListener
           handleAxis(e.code, e.value);
           break;
         case InputEvent.EV_SYN:
-          /*
-           * Indicates a set of button/axis changes detected in one pass by the driver has
-           * now been completely delivered as a series of button and/or axis events. We
-           * have no cleanup work or notifications to do, so just ignore them.
-           */
+          if (e.code == InputEvent.SYN_REPORT) {
+            /*
+             * Indicates a set of button/axis changes detected in one pass by the driver has
+             * now been completely delivered as a series of button and/or axis events, so
+             * publish them together.
+             */
+            if (m_dropFrame) {
+              /* The set of changes is torn, so ask the device where everything is now */
+              resyncFrame(m_device);
+            } else {
+              publishFrame();
+            }
+          } else if (e.code == InputEvent.SYN_DROPPED) {
+            m_dropFrame = true;
+          }
+          break;
         default:
           /* Unknown to us, ignore */
       }
@@ -145,28 +630,36 @@ public abstract class RIOGenericHID extends GenericHID implements InputListener
   }
 
   private void handleAxis(short axisNumber, int value) {
-    int axisIndex = m_axisEventCodes.indexOf((int) axisNumber);
+    int axisIndex = DeviceCapabilities.lookup(m_state.axisIndexes, axisNumber);
     if (axisIndex < 0) {
       System.err.println(
           "WARN: Couldn't find axis " + axisNumber + " in mapping! Perhaps device reported capabilities improperly!");
       return;
     }
-    m_axisStates[axisIndex] = value;
+    /* Scaled and deadbanded here, once, so reading an axis is just an array load */
+    m_state.stagedAxes[axisIndex] = m_axisNormalizers[axisIndex].normalize(value);
   }
 
   private void handleButton(short buttonNumber, boolean buttonState) {
-    int buttonIndex = m_buttonEventCodes.indexOf((int) buttonNumber);
+    DeviceState state = m_state;
+    int buttonIndex = DeviceCapabilities.lookup(state.buttonIndexes, buttonNumber);
     if (buttonIndex < 0) {
       System.err.println("WARN: Couldn't find button " + buttonNumber
           + " in mapping! Perhaps device reported capabilities improperly!");
       return;
     }
-    /* Record as a button pressed if it was up and is now down */
-    m_buttonPressed[buttonIndex] = (!m_buttonStates[buttonIndex] && buttonState);
+    /* Count a button press if it was up and is now down */
+    if (!state.stagedButtons[buttonIndex] && buttonState) {
+      state.stagedPresses[buttonIndex]++;
+      state.edgesStaged = true;
+    }
     /* A button was released if it was down and is now up */
-    m_buttonReleased[buttonIndex] = (m_buttonStates[buttonIndex] && !buttonState);
+    if (state.stagedButtons[buttonIndex] && !buttonState) {
+      state.stagedReleases[buttonIndex]++;
+      state.edgesStaged = true;
+    }
 
-    m_buttonStates[buttonIndex] = buttonState;
+    state.stagedButtons[buttonIndex] = buttonState;
   }
 
   /**
@@ -196,7 +689,18 @@ public abstract class RIOGenericHID extends GenericHID implements InputListener
    * @return The state of the button.
    */
   public boolean getRawButton(int button) {
-    return m_buttonStates[button - 1];
+    boolean[] states = m_state.buttonStates;
+    if (button < 1 || button > states.length) {
+      return false;
+    }
+    int seq;
+    boolean state;
+    do {
+      seq = m_frameSeq;
+      state = states[button - 1];
+      VarHandle.loadLoadFence();
+    } while ((seq & 1) != 0 || seq != m_frameSeq);
+    return state;
   }
 
   /**
@@ -212,18 +716,30 @@ public abstract class RIOGenericHID extends GenericHID implements InputListener
    * @return Whether the button was pressed since the last check.
    */
   public boolean getRawButtonPressed(int button) {
-    boolean retval;
-    if (m_buttonPressed[button - 1]) {
-      /*
-       * Clear the button pressed state since we're about to tell the robot code it
-       * happened
-       */
-      m_buttonPressed[button - 1] = false;
-      retval = true;
-    } else {
-      retval = false;
+    return getRawButtonPressCount(button) > 0;
+  }
+
+  /**
+   * How many times the button was pressed since the last check. Button indexes
+   * begin at 1.
+   *
+   * <p>
+   * Unlike getRawButtonPressed(), counts every press, however quickly several
+   * happen between calls. Shares its last check with getRawButtonPressed().
+   *
+   * @param button The button index, beginning at 1.
+   * @return The number of presses since the last check.
+   */
+  public int getRawButtonPressCount(int button) {
+    DeviceState state = m_state;
+    if (button < 1 || button > state.buttonsCount) {
+      return 0;
     }
-    return retval;
+    int count = state.buttonPressCounts.get(button - 1);
+    /* Difference of the running counts, which is correct even once they wrap */
+    int presses = count - state.buttonPressesRead[button - 1];
+    state.buttonPressesRead[button - 1] = count;
+    return presses;
   }
 
   /**
@@ -239,28 +755,98 @@ public abstract class RIOGenericHID extends GenericHID implements InputListener
    * @return Whether the button was released since the last check.
    */
   public boolean getRawButtonReleased(int button) {
-    boolean retval;
-    if (m_buttonReleased[button - 1]) {
-      /*
-       * Clear the button pressed state since we're about to tell the robot code it
-       * happened
-       */
-      m_buttonReleased[button - 1] = false;
-      retval = true;
-    } else {
-      retval = false;
+    return getRawButtonReleaseCount(button) > 0;
+  }
+
+  /**
+   * How many times the button was released since the last check. Button indexes
+   * begin at 1.
+   *
+   * <p>
+   * Unlike getRawButtonReleased(), counts every release, however quickly several
+   * happen between calls. Shares its last check with getRawButtonReleased().
+   *
+   * @param button The button index, beginning at 1.
+   * @return The number of releases since the last check.
+   */
+  public int getRawButtonReleaseCount(int button) {
+    DeviceState state = m_state;
+    if (button < 1 || button > state.buttonsCount) {
+      return 0;
     }
-    return retval;
+    int count = state.buttonReleaseCounts.get(button - 1);
+    int releases = count - state.buttonReleasesRead[button - 1];
+    state.buttonReleasesRead[button - 1] = count;
+    return releases;
   }
 
   /**
    * Get the value of the axis.
    *
    * @param axis The axis to read, starting at 0.
-   * @return The value of the axis.
+   * @return The value of the axis, from -1 to 1.
    */
   public double getRawAxis(int axis) {
-    return m_axisStates[axis];
+    double[] states = m_state.axisStates;
+    if (axis < 0 || axis >= states.length) {
+      return 0;
+    }
+    int seq;
+    double value;
+    do {
+      seq = m_frameSeq;
+      value = states[axis];
+      VarHandle.loadLoadFence();
+    } while ((seq & 1) != 0 || seq != m_frameSeq);
+    return value;
+  }
+
+  /**
+   * Get the length of the vector formed by two axes, with both read from the
+   * same set of changes.
+   *
+   * @param xAxis The horizontal axis, starting at 0.
+   * @param yAxis The vertical axis, starting at 0.
+   * @return The length of the vector (x, y).
+   */
+  public double getRawAxisMagnitude(int xAxis, int yAxis) {
+    double[] states = m_state.axisStates;
+    if (xAxis < 0 || xAxis >= states.length || yAxis < 0 || yAxis >= states.length) {
+      return 0;
+    }
+    int seq;
+    double x, y;
+    do {
+      seq = m_frameSeq;
+      x = states[xAxis];
+      y = states[yAxis];
+      VarHandle.loadLoadFence();
+    } while ((seq & 1) != 0 || seq != m_frameSeq);
+    return Math.sqrt(x * x + y * y);
+  }
+
+  /**
+   * Get the direction of the vector formed by two axes, with both read from the
+   * same set of changes.
+   *
+   * @param xAxis The horizontal axis, starting at 0.
+   * @param yAxis The vertical axis, starting at 0, increasing downwards.
+   * @return The angle in radians clockwise from straight up (negative y).
+   */
+  public double getRawAxisDirectionRadians(int xAxis, int yAxis) {
+    double[] states = m_state.axisStates;
+    if (xAxis < 0 || xAxis >= states.length || yAxis < 0 || yAxis >= states.length) {
+      return 0;
+    }
+    int seq;
+    double x, y;
+    do {
+      seq = m_frameSeq;
+      x = states[xAxis];
+      y = states[yAxis];
+      VarHandle.loadLoadFence();
+    } while ((seq & 1) != 0 || seq != m_frameSeq);
+    return Math.atan2(x, -y);
   }
 
   /**
@@ -274,7 +860,17 @@ public abstract class RIOGenericHID extends GenericHID implements InputListener
    * @return the angle of the POV in degrees, or -1 if the POV is not pressed.
    */
   public int getPOV(int pov) {
-    return -1;
+    int[] states = m_state.povStates;
+    if (pov < 0 || pov >= states.length) {
+      return -1;
+    }
+    int seq, angle;
+    do {
+      seq = m_frameSeq;
+      angle = states[pov];
+      VarHandle.loadLoadFence();
+    } while ((seq & 1) != 0 || seq != m_frameSeq);
+    return angle;
   }
 
   public int getPOV() {
@@ -287,21 +883,21 @@ public abstract class RIOGenericHID extends GenericHID implements InputListener
    * @return the number of axis for the current HID
    */
   public int getAxisCount() {
-    return m_axesCount;
+    return m_state.axesCount;
   }
 
   /**
    * For the current HID, return the number of POVs.
    */
   public int getPOVCount() {
-    return 0;
+    return m_state.povCount;
   }
 
   /**
    * For the current HID, return the number of buttons.
    */
   public int getButtonCount() {
-    return m_buttonsCount;
+    return m_state.buttonsCount;
   }
 
   /**
@@ -319,7 +915,8 @@ public abstract class RIOGenericHID extends GenericHID implements InputListener
    * @return the name of the HID.
    */
   public String getName() {
-    return m_device.getDeviceName();
+    EventDevice device = m_device;
+    return device == null ? "not connected" : device.getDeviceName();
   }
 
   /**
@@ -347,9 +944,12 @@ public abstract class RIOGenericHID extends GenericHID implements InputListener
    * @param value        The value to set the output to
    */
   public void setOutput(int outputNumber, boolean value) {
-    m_outputs = (m_outputs & ~(1 << (outputNumber - 1))) | ((value ? 1 : 0) << (outputNumber - 1));
-    // HAL.setJoystickOutputs((byte) m_port, m_outputs, m_leftRumble,
-    // m_rightRumble);
+    synchronized (m_outputLock) {
+      m_outputs = (m_outputs & ~(1 << (outputNumber - 1))) | ((value ? 1 : 0) << (outputNumber - 1));
+      // HAL.setJoystickOutputs((byte) m_port, m_outputs, m_leftRumble,
+      // m_rightRumble);
+      writeOutputs();
+    }
   }
 
   /**
@@ -358,9 +958,58 @@ public abstract class RIOGenericHID extends GenericHID implements InputListener
    * @param value The 32 bit output value (1 bit for each output)
    */
   public void setOutputs(int value) {
-    m_outputs = value;
-    // HAL.setJoystickOutputs((byte) m_port, m_outputs, m_leftRumble,
-    // m_rightRumble);
+    synchronized (m_outputLock) {
+      m_outputs = value;
+      // HAL.setJoystickOutputs((byte) m_port, m_outputs, m_leftRumble,
+      // m_rightRumble);
+      writeOutputs();
+    }
+  }
+
+  /*
+   * Write the outputs that changed since the last write to the device's LEDs, as
+   * EV_LED events batched into a single write. Nothing is written if none
+   * changed. On failure the outputs are tried again on the next change.
+   */
+  private void writeOutputs() {
+    synchronized (m_outputLock) {
+      EventDevice device = m_device;
+      if (device == null || m_outputEventCodes == null) {
+        return;
+      }
+      int outputs = m_outputs;
+      int changed = m_writtenOutputsValid ? outputs ^ m_writtenOutputs : -1;
+      int count = 0;
+      for (int i = 0; i < m_outputEventCodes.length; i++) {
+        if ((changed >>> i & 1) != 0) {
+          m_outputCodes[count] = m_outputEventCodes[i];
+          m_outputValues[count] = outputs >>> i & 1;
+          count++;
+        }
+      }
+      if (count == 0) {
+        return;
+      }
+      int result = device.writeEvents(InputEvent.EV_LED, m_outputCodes, m_outputValues, count);
+      if (result == 0) {
+        m_writtenOutputs = outputs;
+        m_writtenOutputsValid = true;
+        m_outputWarned = false;
+      } else if (!m_outputWarned && result != -EventDevice.ENODEV) {
+        System.err.println("WARN: couldn't set outputs of " + device.getDevicePath() + " (errno " + (-result) + ")");
+        m_outputWarned = true;
+      }
+    }
+  }
+
+  /*
+   * Write every output again, to a device that may have forgotten them
+   */
+  private void rewriteOutputs() {
+    synchronized (m_outputLock) {
+      m_writtenOutputsValid = false;
+      writeOutputs();
+    }
   }
 
   /**
@@ -383,5 +1032,27 @@ public abstract class RIOGenericHID extends GenericHID implements InputListener
     }
     // HAL.setJoystickOutputs((byte) m_port, m_outputs, m_leftRumble,
     // m_rightRumble);
+    writeRumble();
+  }
+
+  /*
+   * Pass the rumble last set on to the device, if it can rumble
+   */
+  private void writeRumble() {
+    RumbleOutput rumble = m_rumble;
+    if (rumble != null) {
+      /* The left motor is the strong one on gamepads that have both */
+      rumble.set((m_leftRumble & 0xFFFF) / 65535.0, (m_rightRumble & 0xFFFF) / 65535.0);
+    }
+  }
+
+  /**
+   * Get the force feedback rumble output, for timed pulses and ramps beyond
+   * what setRumble() offers.
+   *
+   * @return The rumble output, or null if the device can't rumble
+   */
+  public RumbleOutput getRumble() {
+    return m_rumble;
   }
 }
@@ -8,6 +8,8 @@
 
 package frc.robot;
 
+import com.dgis.input.evdev.DeviceSelector;
+
 /**
  * Handle input from standard Joysticks connected directly to the RoboRIO. Based
  * on the WPI Libary {@link edu.wpi.first.wpilibj.Joystick Joystick} class.
@@ -89,7 +91,22 @@ public class RIOJoystick extends RIOGenericHID {
      */
     public RIOJoystick(final int deviceNum) {
         super(deviceNum);
+        setDefaultChannels();
+    }
+
+    /**
+     * Construct an instance of a joystick picked by what it is, e.g.
+     * {@code new RIOJoystick(RIOGenericHID.byVendorProduct(0x046d, 0xc215))}, so it
+     * is found whichever USB device number it was given.
+     *
+     * @param selector Which device to open
+     */
+    public RIOJoystick(final DeviceSelector selector) {
+        super(selector);
+        setDefaultChannels();
+    }
 
+    private void setDefaultChannels() {
         m_axes[Axis.kX.value] = kDefaultXChannel;
         m_axes[Axis.kY.value] = kDefaultYChannel;
         m_axes[Axis.kZ.value] = kDefaultZChannel;
@@ -301,7 +318,8 @@ public class RIOJoystick extends RIOGenericHID {
      * @return The magnitude of the direction vector
      */
     public double getMagnitude() {
-        return Math.sqrt(Math.pow(getX(), 2) + Math.pow(getY(), 2));
+        /* Both axes from the same set of changes, so the vector is never torn */
+        return getRawAxisMagnitude(m_axes[Axis.kX.value], m_axes[Axis.kY.value]);
     }
 
     /**
@@ -311,7 +329,7 @@ public class RIOJoystick extends RIOGenericHID {
      * @return The direction of the vector in radians
      */
     public double getDirectionRadians() {
-        return Math.atan2(getX(), -getY());
+        return getRawAxisDirectionRadians(m_axes[Axis.kX.value], m_axes[Axis.kY.value]);
     }
 
     /**
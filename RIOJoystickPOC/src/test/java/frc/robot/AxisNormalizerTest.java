@@ -0,0 +1,96 @@
+package frc.robot;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AxisNormalizerTest {
+  private static final double kEpsilon = 1e-9;
+
+  /* What normalize() should return, worked out independently of AxisNormalizer */
+  private static double expected(int min, int max, double deadband, int value) {
+    value = Math.max(min, Math.min(max, value));
+    double halfRange = ((double) max - min) / 2;
+    double n = (value - ((double) min + max) / 2) / halfRange;
+    if (Math.abs(n) <= deadband) {
+      return 0;
+    }
+    return Math.max(-1, Math.min(1, (n - Math.copySign(deadband, n)) / (1 - deadband)));
+  }
+
+  @Test
+  public void endsAndCenterOfRange() {
+    AxisNormalizer axis = new AxisNormalizer(-32768, 32767, 0, 0);
+    assertEquals(-1, axis.normalize(-32768), kEpsilon);
+    assertEquals(1, axis.normalize(32767), kEpsilon);
+    assertEquals(0, axis.normalize(0), 1e-4);
+  }
+
+  @Test
+  public void restingTriggerReadsMinusOne() {
+    AxisNormalizer trigger = new AxisNormalizer(0, 255, 0, 0);
+    assertEquals(-1, trigger.normalize(0), kEpsilon);
+    assertEquals(1, trigger.normalize(255), kEpsilon);
+  }
+
+  @Test
+  public void clampsOutOfRangeValues() {
+    AxisNormalizer table = new AxisNormalizer(0, 255, 0, 0);
+    assertEquals(-1, table.normalize(Integer.MIN_VALUE), kEpsilon);
+    assertEquals(-1, table.normalize(-1), kEpsilon);
+    assertEquals(1, table.normalize(1000), kEpsilon);
+    assertEquals(1, table.normalize(Integer.MAX_VALUE), kEpsilon);
+
+    AxisNormalizer computed = new AxisNormalizer(-32768, 32767, 0, 0);
+    assertEquals(-1, computed.normalize(Integer.MIN_VALUE), kEpsilon);
+    assertEquals(1, computed.normalize(Integer.MAX_VALUE), kEpsilon);
+  }
+
+  @Test
+  public void rescalesOutsideTheDeadband() {
+    AxisNormalizer axis = new AxisNormalizer(-100, 100, 0, 0.5);
+    assertEquals(0, axis.normalize(0), kEpsilon);
+    assertEquals(0, axis.normalize(50), kEpsilon);
+    assertEquals(0, axis.normalize(-50), kEpsilon);
+    assertEquals(0.5, axis.normalize(75), kEpsilon);
+    assertEquals(-0.5, axis.normalize(-75), kEpsilon);
+    assertEquals(1, axis.normalize(100), kEpsilon);
+    assertEquals(-1, axis.normalize(-100), kEpsilon);
+  }
+
+  @Test
+  public void flatWiderThanDeadbandWins() {
+    AxisNormalizer axis = new AxisNormalizer(-100, 100, 50, 0.1);
+    assertEquals(0, axis.normalize(50), kEpsilon);
+    assertEquals(0.5, axis.normalize(75), kEpsilon);
+  }
+
+  @Test
+  public void deadbandIsCapped() {
+    AxisNormalizer axis = new AxisNormalizer(-100, 100, 0, 1);
+    assertEquals(0, axis.normalize(95), kEpsilon);
+    assertEquals(0.2, axis.normalize(96), kEpsilon);
+    assertEquals(1, axis.normalize(100), kEpsilon);
+  }
+
+  @Test
+  public void tableAndComputedPathsAgree() {
+    /* 4096 values are converted through a table, 4097 are computed */
+    int[] maxes = {AxisNormalizer.kMaxTableSize - 1, AxisNormalizer.kMaxTableSize};
+    for (int max : maxes) {
+      AxisNormalizer axis = new AxisNormalizer(0, max, 0, 0.2);
+      for (int value = -1; value <= max + 1; value++) {
+        assertEquals("max " + max + ", value " + value, expected(0, max, 0.2, value),
+            axis.normalize(value), kEpsilon);
+      }
+    }
+  }
+
+  @Test
+  public void emptyRangeReadsZero() {
+    AxisNormalizer axis = new AxisNormalizer(7, 7, 0, 0);
+    assertEquals(0, axis.normalize(7), kEpsilon);
+    assertEquals(0, axis.normalize(Integer.MIN_VALUE), kEpsilon);
+    assertEquals(0, axis.normalize(Integer.MAX_VALUE), kEpsilon);
+  }
+}
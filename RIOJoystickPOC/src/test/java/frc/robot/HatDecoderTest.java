@@ -0,0 +1,31 @@
+package frc.robot;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HatDecoderTest {
+  @Test
+  public void centeredHatReadsMinusOne() {
+    assertEquals(-1, HatDecoder.povAngle(0, 0));
+  }
+
+  @Test
+  public void directionsMapToPovAngles() {
+    assertEquals(0, HatDecoder.povAngle(0, -1));
+    assertEquals(45, HatDecoder.povAngle(1, -1));
+    assertEquals(90, HatDecoder.povAngle(1, 0));
+    assertEquals(135, HatDecoder.povAngle(1, 1));
+    assertEquals(180, HatDecoder.povAngle(0, 1));
+    assertEquals(225, HatDecoder.povAngle(-1, 1));
+    assertEquals(270, HatDecoder.povAngle(-1, 0));
+    assertEquals(315, HatDecoder.povAngle(-1, -1));
+  }
+
+  @Test
+  public void analogHatsMustBePushedPastHalfway() {
+    assertEquals(-1, HatDecoder.povAngle(0.4, -0.4));
+    assertEquals(-1, HatDecoder.povAngle(-0.5, 0.5));
+    assertEquals(45, HatDecoder.povAngle(0.6, -0.6));
+  }
+}
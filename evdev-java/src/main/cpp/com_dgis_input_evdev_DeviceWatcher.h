@@ -0,0 +1,47 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class com_dgis_input_evdev_DeviceWatcher */
+
+#ifndef _Included_com_dgis_input_evdev_DeviceWatcher
+#define _Included_com_dgis_input_evdev_DeviceWatcher
+#ifdef __cplusplus
+extern "C" {
+#endif
+#undef com_dgis_input_evdev_DeviceWatcher_IN_ATTRIB
+#define com_dgis_input_evdev_DeviceWatcher_IN_ATTRIB 4L
+#undef com_dgis_input_evdev_DeviceWatcher_IN_CREATE
+#define com_dgis_input_evdev_DeviceWatcher_IN_CREATE 256L
+#undef com_dgis_input_evdev_DeviceWatcher_IN_DELETE
+#define com_dgis_input_evdev_DeviceWatcher_IN_DELETE 512L
+#undef com_dgis_input_evdev_DeviceWatcher_IN_Q_OVERFLOW
+#define com_dgis_input_evdev_DeviceWatcher_IN_Q_OVERFLOW 16384L
+#undef com_dgis_input_evdev_DeviceWatcher_INOTIFY_EVENT_SIZE
+#define com_dgis_input_evdev_DeviceWatcher_INOTIFY_EVENT_SIZE 16L
+/*
+ * Class:     com_dgis_input_evdev_DeviceWatcher
+ * Method:    inotifyInit
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_DeviceWatcher_inotifyInit
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     com_dgis_input_evdev_DeviceWatcher
+ * Method:    inotifyAddWatch
+ * Signature: (ILjava/lang/String;I)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_DeviceWatcher_inotifyAddWatch
+  (JNIEnv *, jclass, jint, jstring, jint);
+
+/*
+ * Class:     com_dgis_input_evdev_DeviceWatcher
+ * Method:    inotifyRead
+ * Signature: (I[B)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_DeviceWatcher_inotifyRead
+  (JNIEnv *, jclass, jint, jbyteArray);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
@@ -7,45 +7,179 @@
 #ifdef __cplusplus
 extern "C" {
 #endif
+#undef com_dgis_input_evdev_EventDevice_EVENTS_PER_READ
+#define com_dgis_input_evdev_EventDevice_EVENTS_PER_READ 64L
+#undef com_dgis_input_evdev_EventDevice_RECONNECT_MIN_MS
+#define com_dgis_input_evdev_EventDevice_RECONNECT_MIN_MS 10L
+#undef com_dgis_input_evdev_EventDevice_RECONNECT_MAX_MS
+#define com_dgis_input_evdev_EventDevice_RECONNECT_MAX_MS 2000L
+#undef com_dgis_input_evdev_EventDevice_MAX_EVENTS_PER_WRITE
+#define com_dgis_input_evdev_EventDevice_MAX_EVENTS_PER_WRITE 63L
+#undef com_dgis_input_evdev_EventDevice_ABSINFO_INTS
+#define com_dgis_input_evdev_EventDevice_ABSINFO_INTS 6L
+#undef com_dgis_input_evdev_EventDevice_EAGAIN
+#define com_dgis_input_evdev_EventDevice_EAGAIN 11L
+#undef com_dgis_input_evdev_EventDevice_ENODEV
+#define com_dgis_input_evdev_EventDevice_ENODEV 19L
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    openHandle
+ * Signature: (Ljava/lang/String;ZZ)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_openHandle
+  (JNIEnv *, jclass, jstring, jboolean, jboolean);
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    closeHandle
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_com_dgis_input_evdev_EventDevice_closeHandle
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    readHandle
+ * Signature: (ILjava/nio/ByteBuffer;I)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_readHandle
+  (JNIEnv *, jclass, jint, jobject, jint);
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    writeHandle
+ * Signature: (ILjava/nio/ByteBuffer;I)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_writeHandle
+  (JNIEnv *, jclass, jint, jobject, jint);
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    createWakeHandle
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_createWakeHandle
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    signalWakeHandle
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_com_dgis_input_evdev_EventDevice_signalWakeHandle
+  (JNIEnv *, jclass, jint);
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    waitReadable
+ * Signature: (III)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_waitReadable
+  (JNIEnv *, jclass, jint, jint, jint);
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    probeDevice
+ * Signature: (I[S[B[J[I)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_probeDevice
+  (JNIEnv *, jclass, jint, jshortArray, jbyteArray, jlongArray, jintArray);
+
 /*
  * Class:     com_dgis_input_evdev_EventDevice
  * Method:    ioctlGetID
- * Signature: (Ljava/lang/String;[S)Z
+ * Signature: (I[S)Z
  */
 JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlGetID
-  (JNIEnv *, jobject, jstring, jshortArray);
+  (JNIEnv *, jclass, jint, jshortArray);
 
 /*
  * Class:     com_dgis_input_evdev_EventDevice
  * Method:    ioctlGetEvdevVersion
- * Signature: (Ljava/lang/String;)I
+ * Signature: (I)I
  */
 JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlGetEvdevVersion
-  (JNIEnv *, jobject, jstring);
+  (JNIEnv *, jclass, jint);
 
 /*
  * Class:     com_dgis_input_evdev_EventDevice
  * Method:    ioctlGetDeviceName
- * Signature: (Ljava/lang/String;[B)Z
+ * Signature: (I[B)Z
  */
 JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlGetDeviceName
-  (JNIEnv *, jobject, jstring, jbyteArray);
+  (JNIEnv *, jclass, jint, jbyteArray);
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    ioctlGetPhys
+ * Signature: (I[B)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlGetPhys
+  (JNIEnv *, jclass, jint, jbyteArray);
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    ioctlGetUniq
+ * Signature: (I[B)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlGetUniq
+  (JNIEnv *, jclass, jint, jbyteArray);
 
 /*
  * Class:     com_dgis_input_evdev_EventDevice
  * Method:    ioctlEVIOCGBIT
- * Signature: (Ljava/lang/String;[JII)Z
+ * Signature: (I[JII)Z
  */
 JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlEVIOCGBIT
-  (JNIEnv *, jobject, jstring, jlongArray, jint, jint);
+  (JNIEnv *, jclass, jint, jlongArray, jint, jint);
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    ioctlEVIOCGKEY
+ * Signature: (I[J)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlEVIOCGKEY
+  (JNIEnv *, jclass, jint, jlongArray);
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    ioctlEVIOCSMASK
+ * Signature: (II[J)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlEVIOCSMASK
+  (JNIEnv *, jclass, jint, jint, jlongArray);
 
 /*
  * Class:     com_dgis_input_evdev_EventDevice
  * Method:    ioctlEVIOCGABS
- * Signature: (Ljava/lang/String;[II)Z
+ * Signature: (I[II)Z
  */
 JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlEVIOCGABS
-  (JNIEnv *, jobject, jstring, jintArray, jint);
+  (JNIEnv *, jclass, jint, jintArray, jint);
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    ioctlEVIOCGRAB
+ * Signature: (IZ)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlEVIOCGRAB
+  (JNIEnv *, jclass, jint, jboolean);
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    ioctlEVIOCSFF
+ * Signature: (IIIII)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlEVIOCSFF
+  (JNIEnv *, jclass, jint, jint, jint, jint, jint);
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    ioctlEVIOCRMFF
+ * Signature: (II)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlEVIOCRMFF
+  (JNIEnv *, jclass, jint, jint);
 
 #ifdef __cplusplus
 }
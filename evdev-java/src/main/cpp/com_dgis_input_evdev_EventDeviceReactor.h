@@ -0,0 +1,45 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class com_dgis_input_evdev_EventDeviceReactor */
+
+#ifndef _Included_com_dgis_input_evdev_EventDeviceReactor
+#define _Included_com_dgis_input_evdev_EventDeviceReactor
+#ifdef __cplusplus
+extern "C" {
+#endif
+/*
+ * Class:     com_dgis_input_evdev_EventDeviceReactor
+ * Method:    epollCreate
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDeviceReactor_epollCreate
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     com_dgis_input_evdev_EventDeviceReactor
+ * Method:    epollAdd
+ * Signature: (II)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDeviceReactor_epollAdd
+  (JNIEnv *, jclass, jint, jint);
+
+/*
+ * Class:     com_dgis_input_evdev_EventDeviceReactor
+ * Method:    epollRemove
+ * Signature: (II)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDeviceReactor_epollRemove
+  (JNIEnv *, jclass, jint, jint);
+
+/*
+ * Class:     com_dgis_input_evdev_EventDeviceReactor
+ * Method:    epollWait
+ * Signature: (I[II)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDeviceReactor_epollWait
+  (JNIEnv *, jclass, jint, jintArray, jint);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
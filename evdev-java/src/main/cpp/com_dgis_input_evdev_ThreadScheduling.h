@@ -0,0 +1,37 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class com_dgis_input_evdev_ThreadScheduling */
+
+#ifndef _Included_com_dgis_input_evdev_ThreadScheduling
+#define _Included_com_dgis_input_evdev_ThreadScheduling
+#ifdef __cplusplus
+extern "C" {
+#endif
+/*
+ * Class:     com_dgis_input_evdev_ThreadScheduling
+ * Method:    getThreadId
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_ThreadScheduling_getThreadId
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     com_dgis_input_evdev_ThreadScheduling
+ * Method:    setRealtimePriority
+ * Signature: (II)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_ThreadScheduling_setRealtimePriority
+  (JNIEnv *, jclass, jint, jint);
+
+/*
+ * Class:     com_dgis_input_evdev_ThreadScheduling
+ * Method:    setCpuAffinity
+ * Signature: (IJ)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_ThreadScheduling_setCpuAffinity
+  (JNIEnv *, jclass, jint, jlong);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
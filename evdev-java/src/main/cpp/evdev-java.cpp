@@ -1,124 +1,370 @@
+#ifndef _GNU_SOURCE
+#define _GNU_SOURCE /* For sched_setaffinity() */
+#endif
+
 #include <stdint.h>
 
 #include <linux/input.h>
 
 #include <string.h>
+#include <errno.h>
 #include <fcntl.h>
 #include <unistd.h>
+#include <poll.h>
+#include <sys/epoll.h>
+#include <sys/eventfd.h>
+#include <sys/inotify.h>
+#include <sys/ioctl.h>
+#include <sys/syscall.h>
+#include <sched.h>
 
 #include <jni.h>
 #include "com_dgis_input_evdev_EventDevice.h"
+#include "com_dgis_input_evdev_EventDeviceReactor.h"
+#include "com_dgis_input_evdev_ThreadScheduling.h"
+#include "com_dgis_input_evdev_DeviceWatcher.h"
 
 /*
  * Class:     com_dgis_input_evdev_EventDevice
- * Method:    ioctlGetID
- * Signature: (Ljava/lang/String;[S)V
+ * Method:    openHandle
+ * Signature: (Ljava/lang/String;ZZ)I
  */
-JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlGetID
-	(JNIEnv *env, jobject obj, jstring device_name, jshortArray out) {
-  
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_openHandle
+	(JNIEnv *env, jclass cls, jstring device_name, jboolean non_blocking, jboolean writable) {
+
 	/* Get C references to Java objects */
 	const char* device_name_str = env->GetStringUTFChars (device_name, NULL);
-	short* id = env->GetShortArrayElements (out, NULL);
-  
-	/* Do the ioctl */
-	int fd, retval;
-	if ((fd = open(device_name_str, O_RDONLY)) < 0) {
-		retval=0;
-	} else {
-		ioctl(fd, EVIOCGID, id);
-		close(fd);
-		retval=1;
-	}
-  
+
+	int flags = non_blocking ? O_NONBLOCK : 0;
+	int fd = open(device_name_str, (writable ? O_RDWR : O_RDONLY) | flags);
+	if (fd < 0 && writable && (errno == EACCES || errno == EPERM || errno == EROFS)) {
+		/* Still worth reading from if we may not write to it */
+		fd = open(device_name_str, O_RDONLY | flags);
+	}
+	if (fd < 0) {
+		fd = -errno;
+	}
+
 	/* Release C references to Java objects */
-	env->ReleaseShortArrayElements (out, id, 0);
 	env->ReleaseStringUTFChars (device_name, device_name_str);
-  
-	return retval;
+
+	return fd;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    closeHandle
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_com_dgis_input_evdev_EventDevice_closeHandle
+	(JNIEnv *env, jclass cls, jint fd) {
+	close(fd);
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    readHandle
+ * Signature: (ILjava/nio/ByteBuffer;I)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_readHandle
+	(JNIEnv *env, jclass cls, jint fd, jobject buffer, jint length) {
+
+	/* The buffer is direct, so the kernel can copy straight into it */
+	void* buf = env->GetDirectBufferAddress (buffer);
+	if (buf == NULL) return -EINVAL;
+
+	ssize_t count = read(fd, buf, length);
+	return count < 0 ? -errno : (jint) count;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    writeHandle
+ * Signature: (ILjava/nio/ByteBuffer;I)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_writeHandle
+	(JNIEnv *env, jclass cls, jint fd, jobject buffer, jint length) {
+
+	void* buf = env->GetDirectBufferAddress (buffer);
+	if (buf == NULL) return -EINVAL;
+
+	ssize_t count = write(fd, buf, length);
+	return count < 0 ? -errno : (jint) count;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    createWakeHandle
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_createWakeHandle
+	(JNIEnv *env, jclass cls) {
+	int fd = eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC);
+	return fd < 0 ? -errno : fd;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    signalWakeHandle
+ * Signature: (I)V
+ */
+JNIEXPORT void JNICALL Java_com_dgis_input_evdev_EventDevice_signalWakeHandle
+	(JNIEnv *env, jclass cls, jint fd) {
+	uint64_t one = 1;
+	if (write(fd, &one, sizeof(one)) < 0) {
+		/* Only fails if the counter would overflow, in which case it is already readable */
+	}
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    waitReadable
+ * Signature: (III)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_waitReadable
+	(JNIEnv *env, jclass cls, jint fd, jint wake_fd, jint timeout) {
+	struct pollfd fds[2];
+	fds[0].fd = fd; /* poll() skips negative descriptors */
+	fds[0].events = POLLIN;
+	fds[0].revents = 0;
+	fds[1].fd = wake_fd;
+	fds[1].events = POLLIN;
+	fds[1].revents = 0;
+
+	if (poll(fds, 2, timeout) <= 0) {
+		return 0; /* Timed out, or interrupted by a signal */
+	}
+
+	/* An error or hangup counts as readable, so the caller's read reports it */
+	return (fds[0].revents & (POLLIN | POLLERR | POLLHUP | POLLNVAL)) ? 1 : 0;
+}
+
+/* Test bit n of a kernel bitmap, viewed as little-endian bytes */
+static int test_bit(const jlong* bitmap, int n) {
+	return (((const unsigned char*) bitmap)[n / 8] >> (n % 8)) & 1;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    probeDevice
+ * Signature: (I[S[B[J[I)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_probeDevice
+	(JNIEnv *env, jclass cls, jint fd, jshortArray id_out, jbyteArray name_out, jlongArray bits_out, jintArray abs_out) {
+
+	int version;
+	if (ioctl(fd, EVIOCGVERSION, &version) < 0) {
+		return -errno;
+	}
+
+	/* ID, zeroed if the device won't say */
+	struct input_id id;
+	memset(&id, 0, sizeof(id));
+	ioctl(fd, EVIOCGID, &id);
+	env->SetShortArrayRegion (id_out, 0, 4, (jshort*) &id);
+
+	/* Name, left empty if the device won't say */
+	jsize name_len = env->GetArrayLength (name_out);
+	jbyte* name = env->GetByteArrayElements (name_out, NULL);
+	memset(name, 0, name_len);
+	ioctl(fd, EVIOCGNAME(name_len - 1), name);
+	env->ReleaseByteArrayElements (name_out, name, 0);
+
+	/* One bitmap row per event type, row 0 being the supported types themselves */
+	jsize row_longs = env->GetArrayLength (bits_out) / EV_CNT;
+	int row_bytes = row_longs * sizeof(jlong);
+	jlong* bits = env->GetLongArrayElements (bits_out, NULL);
+	memset(bits, 0, EV_CNT * row_bytes);
+	ioctl(fd, EVIOCGBIT(0, row_bytes), bits);
+	int type;
+	for (type = 1; type < EV_CNT; type++) {
+		if (test_bit(bits, type)) {
+			ioctl(fd, EVIOCGBIT(type, row_bytes), bits + type * row_longs);
+		}
+	}
+
+	/* Absolute axis parameters, six ints per axis code */
+	if (test_bit(bits, EV_ABS)) {
+		const jlong* abs_bits = bits + EV_ABS * row_longs;
+		jsize abs_count = env->GetArrayLength (abs_out) / 6;
+		jint* abs = env->GetIntArrayElements (abs_out, NULL);
+		int axis;
+		for (axis = 0; axis < abs_count && axis < ABS_CNT; axis++) {
+			if (test_bit(abs_bits, axis)) {
+				ioctl(fd, EVIOCGABS(axis), (struct input_absinfo*) (abs + axis * 6));
+			}
+		}
+		env->ReleaseIntArrayElements (abs_out, abs, 0);
+	}
+
+	env->ReleaseLongArrayElements (bits_out, bits, 0);
+
+	return version;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    ioctlGetID
+ * Signature: (I[S)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlGetID
+	(JNIEnv *env, jclass cls, jint fd, jshortArray out) {
+
+	/* Do the ioctl */
+	struct input_id id;
+	if (ioctl(fd, EVIOCGID, &id) < 0) {
+		return 0;
+	}
+
+	/* Copy out in ID_BUS, ID_VENDOR, ID_PRODUCT, ID_VERSION order */
+	env->SetShortArrayRegion (out, 0, 4, (jshort*) &id);
+
+	return 1;
 }
 
 /*
  * Class:     com_dgis_input_evdev_EventDevice
  * Method:    ioctlGetEvdevVersion
- * Signature: (Ljava/lang/String;)I
+ * Signature: (I)I
  */
 JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlGetEvdevVersion
-	(JNIEnv *env, jobject obj, jstring device_name) {
-  
-	/* Get C references to Java objects */
-	const char* device_name_str = env->GetStringUTFChars (device_name, NULL);
+	(JNIEnv *env, jclass cls, jint fd) {
 
 	/* Do the ioctl */
-	int fd, version;
-	if ((fd = open(device_name_str, O_RDONLY)) < 0) {
+	int version;
+	if (ioctl(fd, EVIOCGVERSION, &version)) {
 		version = 0;
-	} else {
-		if (ioctl(fd, EVIOCGVERSION, &version)) {
-			version = 0;
-		}
-		close(fd);
 	}
 
-	/* Release C references to Java objects */
-	env->ReleaseStringUTFChars (device_name, device_name_str);
-
 	return version;
 }
 
 /*
  * Class:     com_dgis_input_evdev_EventDevice
  * Method:    ioctlGetDeviceName
- * Signature: ([BI)V
+ * Signature: (I[B)Z
  */
 JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlGetDeviceName
-	(JNIEnv *env, jobject obj, jstring device_name, jbyteArray name) {
+	(JNIEnv *env, jclass cls, jint fd, jbyteArray name) {
 
 	/* Get C references to Java objects */
-	const char* device_name_str = env->GetStringUTFChars (device_name, NULL);
-	signed char* name_str = env->GetByteArrayElements (name, NULL);
+	jbyte* name_str = env->GetByteArrayElements (name, NULL);
 
 	/* Do the ioctl */
-	int fd, retval;
-	if ((fd = open(device_name_str, O_RDONLY)) < 0) {
-		retval=0;
-	} else {
-		ioctl(fd, EVIOCGNAME(env->GetArrayLength(name)), name_str);
-		close(fd);
-		retval=1;
-	}
+	int retval = ioctl(fd, EVIOCGNAME(env->GetArrayLength (name)), name_str) >= 0;
 
 	/* Release C references to Java objects */
 	env->ReleaseByteArrayElements (name, name_str, 0);
-	env->ReleaseStringUTFChars (device_name, device_name_str);
 
 	return retval;
 }
 
 /*
  * Class:     com_dgis_input_evdev_EventDevice
- * Method:    ioctrlEVIOCGBIT
- * Signature: (Ljava/lang/String;[J)Z
+ * Method:    ioctlGetPhys
+ * Signature: (I[B)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlGetPhys
+	(JNIEnv *env, jclass cls, jint fd, jbyteArray phys) {
+
+	/* Get C references to Java objects */
+	jbyte* phys_str = env->GetByteArrayElements (phys, NULL);
+
+	/* Do the ioctl */
+	int retval = ioctl(fd, EVIOCGPHYS(env->GetArrayLength (phys)), phys_str) >= 0;
+
+	/* Release C references to Java objects */
+	env->ReleaseByteArrayElements (phys, phys_str, 0);
+
+	return retval;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    ioctlGetUniq
+ * Signature: (I[B)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlGetUniq
+	(JNIEnv *env, jclass cls, jint fd, jbyteArray uniq) {
+
+	/* Get C references to Java objects */
+	jbyte* uniq_str = env->GetByteArrayElements (uniq, NULL);
+
+	/* Do the ioctl */
+	int retval = ioctl(fd, EVIOCGUNIQ(env->GetArrayLength (uniq)), uniq_str) >= 0;
+
+	/* Release C references to Java objects */
+	env->ReleaseByteArrayElements (uniq, uniq_str, 0);
+
+	return retval;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    ioctlEVIOCGBIT
+ * Signature: (I[JII)Z
  */
 JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlEVIOCGBIT
-	(JNIEnv *env, jobject obj, jstring device_name, jlongArray out, jint start, jint stop) {
+	(JNIEnv *env, jclass cls, jint fd, jlongArray out, jint start, jint stop) {
+
+	/* Never let the kernel write past the end of the array */
+	int size = env->GetArrayLength (out) * sizeof(jlong);
+	if (stop > size) stop = size;
+
 	/* Get C references to Java objects */
-	const char* device_name_str = env->GetStringUTFChars (device_name, NULL);
 	jlong* resp = env->GetLongArrayElements (out, NULL);
 
 	/* Do the ioctl */
-	int fd, retval;
-	if ((fd = open(device_name_str, O_RDONLY)) < 0) {
-		retval=0;
-	} else {
-		ioctl(fd, EVIOCGBIT(start, stop), resp);
-		close(fd);
-		retval=1;
-	}
+	int retval = ioctl(fd, EVIOCGBIT(start, stop), resp) >= 0;
 
 	/* Release C references to Java objects */
 	env->ReleaseLongArrayElements (out, resp, 0);
-	env->ReleaseStringUTFChars (device_name, device_name_str);
+
+	return retval;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    ioctlEVIOCGKEY
+ * Signature: (I[J)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlEVIOCGKEY
+	(JNIEnv *env, jclass cls, jint fd, jlongArray out) {
+
+	int size = env->GetArrayLength (out) * sizeof(jlong);
+
+	/* Get C references to Java objects */
+	jlong* resp = env->GetLongArrayElements (out, NULL);
+
+	/* Do the ioctl */
+	int retval = ioctl(fd, EVIOCGKEY(size), resp) >= 0;
+
+	/* Release C references to Java objects */
+	env->ReleaseLongArrayElements (out, resp, 0);
+
+	return retval;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    ioctlEVIOCSMASK
+ * Signature: (II[J)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlEVIOCSMASK
+	(JNIEnv *env, jclass cls, jint fd, jint type, jlongArray codes) {
+
+	/* Get C references to Java objects */
+	jlong* bits = env->GetLongArrayElements (codes, NULL);
+
+	/* Do the ioctl */
+	struct input_mask mask;
+	mask.type = type;
+	mask.codes_size = env->GetArrayLength (codes) * sizeof(jlong);
+	mask.codes_ptr = (uint64_t) (uintptr_t) bits;
+	int retval = ioctl(fd, EVIOCSMASK, &mask) < 0 ? -errno : 0;
+
+	/* Release C references to Java objects, without copying back */
+	env->ReleaseLongArrayElements (codes, bits, JNI_ABORT);
 
 	return retval;
 }
@@ -126,30 +372,229 @@ JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlEVIOCGBIT
 /*
  * Class:     com_dgis_input_evdev_EventDevice
  * Method:    ioctlEVIOCGABS
- * Signature: (Ljava/lang/String;[II)Z
+ * Signature: (I[II)Z
  */
 JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlEVIOCGABS
-	(JNIEnv *env, jobject obj, jstring device_name, jintArray out, jint axis) {
-	
-	if(env->GetArrayLength(out) < 5) return 0;
-	
-	/* Get C references to Java objects */
-	const char* device_name_str = env->GetStringUTFChars (device_name, NULL);
-	int* resp = env->GetIntArrayElements (out, NULL);
+	(JNIEnv *env, jclass cls, jint fd, jintArray out, jint axis) {
+
+	if(env->GetArrayLength (out) < 6) return 0;
 
 	/* Do the ioctl */
-	int fd, retval;
-	if ((fd = open(device_name_str, O_RDONLY)) < 0) {
-		retval=0;
-	} else {
-		ioctl(fd, EVIOCGABS(axis), resp);
-		close(fd);
-		retval=1;
+	struct input_absinfo abs;
+	if (ioctl(fd, EVIOCGABS(axis), &abs) < 0) {
+		return 0;
+	}
+
+	/* Copy out value, min, max, fuzz, flat, resolution */
+	env->SetIntArrayRegion (out, 0, 6, (jint*) &abs);
+
+	return 1;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    ioctlEVIOCGRAB
+ * Signature: (IZ)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlEVIOCGRAB
+	(JNIEnv *env, jclass cls, jint fd, jboolean grab) {
+	if (ioctl(fd, EVIOCGRAB, grab ? 1 : 0) < 0) {
+		return -errno;
+	}
+	return 0;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    ioctlEVIOCSFF
+ * Signature: (IIIII)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlEVIOCSFF
+	(JNIEnv *env, jclass cls, jint fd, jint id, jint strong, jint weak, jint length) {
+	struct ff_effect effect;
+	memset(&effect, 0, sizeof(effect));
+	effect.type = FF_RUMBLE;
+	effect.id = id; /* -1 uploads a new effect, otherwise the effect is updated in place */
+	effect.u.rumble.strong_magnitude = strong;
+	effect.u.rumble.weak_magnitude = weak;
+	effect.replay.length = length;
+	effect.replay.delay = 0;
+
+	if (ioctl(fd, EVIOCSFF, &effect) < 0) {
+		return -errno;
+	}
+	return effect.id;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDevice
+ * Method:    ioctlEVIOCRMFF
+ * Signature: (II)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDevice_ioctlEVIOCRMFF
+	(JNIEnv *env, jclass cls, jint fd, jint id) {
+	if (ioctl(fd, EVIOCRMFF, id) < 0) {
+		return -errno;
+	}
+	return 0;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDeviceReactor
+ * Method:    epollCreate
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDeviceReactor_epollCreate
+	(JNIEnv *env, jclass cls) {
+	int fd = epoll_create1(EPOLL_CLOEXEC);
+	return fd < 0 ? -errno : fd;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDeviceReactor
+ * Method:    epollAdd
+ * Signature: (II)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDeviceReactor_epollAdd
+	(JNIEnv *env, jclass cls, jint epfd, jint fd) {
+	struct epoll_event ev;
+	memset(&ev, 0, sizeof(ev));
+	ev.events = EPOLLIN;
+	ev.data.fd = fd;
+	return epoll_ctl(epfd, EPOLL_CTL_ADD, fd, &ev) == 0;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDeviceReactor
+ * Method:    epollRemove
+ * Signature: (II)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_dgis_input_evdev_EventDeviceReactor_epollRemove
+	(JNIEnv *env, jclass cls, jint epfd, jint fd) {
+	struct epoll_event ev; /* Ignored, but must be non-NULL on older kernels */
+	return epoll_ctl(epfd, EPOLL_CTL_DEL, fd, &ev) == 0;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_EventDeviceReactor
+ * Method:    epollWait
+ * Signature: (I[II)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_EventDeviceReactor_epollWait
+	(JNIEnv *env, jclass cls, jint epfd, jintArray ready, jint timeout) {
+	struct epoll_event events[64];
+	int max = env->GetArrayLength (ready);
+	if (max > 64) max = 64;
+
+	int count = epoll_wait(epfd, events, max, timeout);
+	if (count <= 0) return 0; /* Timed out, or interrupted by a signal */
+
+	/* Report only the ready file descriptors */
+	jint fds[64];
+	int i;
+	for (i = 0; i < count; i++) {
+		fds[i] = events[i].data.fd;
+	}
+	env->SetIntArrayRegion (ready, 0, count, fds);
+
+	return count;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_ThreadScheduling
+ * Method:    getThreadId
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_ThreadScheduling_getThreadId
+	(JNIEnv *env, jclass cls) {
+	return (jint) syscall(SYS_gettid);
+}
+
+/*
+ * Class:     com_dgis_input_evdev_ThreadScheduling
+ * Method:    setRealtimePriority
+ * Signature: (II)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_ThreadScheduling_setRealtimePriority
+	(JNIEnv *env, jclass cls, jint tid, jint priority) {
+	struct sched_param param;
+	memset(&param, 0, sizeof(param));
+	param.sched_priority = priority;
+	if (sched_setscheduler(tid, priority > 0 ? SCHED_FIFO : SCHED_OTHER, &param) < 0) {
+		return -errno;
+	}
+	return 0;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_ThreadScheduling
+ * Method:    setCpuAffinity
+ * Signature: (IJ)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_ThreadScheduling_setCpuAffinity
+	(JNIEnv *env, jclass cls, jint tid, jlong mask) {
+	cpu_set_t set;
+	CPU_ZERO(&set);
+	int cpu;
+	for (cpu = 0; cpu < 64; cpu++) {
+		if ((mask >> cpu) & 1) {
+			CPU_SET(cpu, &set);
+		}
+	}
+	if (sched_setaffinity(tid, sizeof(set), &set) < 0) {
+		return -errno;
+	}
+	return 0;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_DeviceWatcher
+ * Method:    inotifyInit
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_DeviceWatcher_inotifyInit
+	(JNIEnv *env, jclass cls) {
+	int fd = inotify_init1(IN_NONBLOCK | IN_CLOEXEC);
+	return fd < 0 ? -errno : fd;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_DeviceWatcher
+ * Method:    inotifyAddWatch
+ * Signature: (ILjava/lang/String;I)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_DeviceWatcher_inotifyAddWatch
+	(JNIEnv *env, jclass cls, jint fd, jstring path, jint mask) {
+
+	/* Get C references to Java objects */
+	const char* path_str = env->GetStringUTFChars (path, NULL);
+
+	int wd = inotify_add_watch(fd, path_str, (uint32_t) mask);
+	if (wd < 0) {
+		wd = -errno;
 	}
 
 	/* Release C references to Java objects */
-	env->ReleaseIntArrayElements (out, resp, 0);
-	env->ReleaseStringUTFChars (device_name, device_name_str);
+	env->ReleaseStringUTFChars (path, path_str);
 
-	return retval;
+	return wd;
+}
+
+/*
+ * Class:     com_dgis_input_evdev_DeviceWatcher
+ * Method:    inotifyRead
+ * Signature: (I[B)I
+ */
+JNIEXPORT jint JNICALL Java_com_dgis_input_evdev_DeviceWatcher_inotifyRead
+	(JNIEnv *env, jclass cls, jint fd, jbyteArray resp) {
+	/* Large enough for several events, however long their names */
+	char buf[4096] __attribute__ ((aligned(__alignof__(struct inotify_event))));
+
+	jsize length = env->GetArrayLength (resp);
+	ssize_t count = read(fd, buf, length < (jsize) sizeof(buf) ? (size_t) length : sizeof(buf));
+	if (count < 0) {
+		return -errno;
+	}
+	env->SetByteArrayRegion (resp, 0, (jsize) count, (const jbyte*) buf);
+	return (jint) count;
 }
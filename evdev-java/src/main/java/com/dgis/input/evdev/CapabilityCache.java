@@ -0,0 +1,248 @@
+package com.dgis.input.evdev;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * This file is part of evdev-java.
+ *  evdev-java is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  evdev-java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with evdev-java.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Remembers the capabilities of every device seen, in a small binary file, so the same devices can be
+ * opened again (e.g. on the next boot) without probing every capability bitmap and axis.
+ * Devices are recognized by evdev version, bus, vendor, product and version IDs, and name.
+ * @see com.dgis.input.evdev.EventDevice#setCapabilityCache(CapabilityCache)
+ */
+
+public class CapabilityCache {
+
+	/**
+	 * "EVCC", followed by the format version. A file without both is ignored.
+	 */
+	private static final int MAGIC = 0x45564343;
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Stop adding devices past this many, in case something generates endless identities.
+	 */
+	private static final int MAX_ENTRIES = 256;
+
+	private final File file;
+
+	/**
+	 * Cached capabilities by key(). Read from file on first use. Guarded by this.
+	 */
+	private HashMap<String, Entry> entries;
+
+	/**
+	 * @param path The cache file. It is created when the first device is added, and need not exist.
+	 */
+	public CapabilityCache(String path) {
+		file = new File(path);
+	}
+
+	/**
+	 * @return The cache key of a device.
+	 */
+	static String key(int evdevVersion, short[] id, String name) {
+		return String.format("%x/%04x/%04x/%04x/%04x/%s", evdevVersion, id[InputEvent.ID_BUS] & 0xFFFF,
+				id[InputEvent.ID_VENDOR] & 0xFFFF, id[InputEvent.ID_PRODUCT] & 0xFFFF, id[InputEvent.ID_VERSION] & 0xFFFF, name);
+	}
+
+	/**
+	 * @return The capabilities stored for key, or null if the device hasn't been seen.
+	 */
+	synchronized Entry get(String key) {
+		if(entries == null) load();
+		return entries.get(key);
+	}
+
+	/**
+	 * Remember a device's capabilities, and rewrite the file.
+	 */
+	synchronized void put(String key, Entry entry) {
+		if(entries == null) load();
+		if(entries.size() >= MAX_ENTRIES) return;
+		entries.put(key, entry);
+		save();
+	}
+
+	/**
+	 * Read the file into entries. Starts empty if it is missing or unreadable.
+	 */
+	private void load() {
+		entries = new HashMap<String, Entry>();
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		} catch (FileNotFoundException e) {
+			return;
+		}
+		try {
+			if(in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+				System.err.println("WARN: ignoring capability cache in unknown format: "+file);
+				return;
+			}
+			int count = in.readInt();
+			for(int i = 0; i < count; i++) {
+				String key = in.readUTF();
+				entries.put(key, Entry.read(in));
+			}
+		} catch (IOException e) {
+			System.err.println("WARN: ignoring unreadable capability cache "+file+": "+e);
+			entries.clear();
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Write every entry to a temporary file, then rename it over the cache file, so a reader
+	 * (or a power cut) never sees a half-written cache.
+	 */
+	private void save() {
+		File temp = new File(file.getPath()+".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(entries.size());
+				for(Map.Entry<String, Entry> e : entries.entrySet()) {
+					out.writeUTF(e.getKey());
+					e.getValue().write(out);
+				}
+			} finally {
+				out.close();
+			}
+			if(!temp.renameTo(file)) throw new IOException("couldn't rename "+temp);
+		} catch (IOException e) {
+			System.err.println("WARN: couldn't write capability cache "+file+": "+e);
+			temp.delete();
+		}
+	}
+
+	/**
+	 * The capabilities of one kind of device: its supported codes of each type, and its axes' input_absinfo.
+	 */
+	static class Entry {
+
+		/**
+		 * Supported codes, in increasing order, indexed by event type. Null for unsupported types.
+		 */
+		private final short[][] codes;
+
+		/**
+		 * EventDevice.ABSINFO_INTS ints for each code in codes[EV_ABS], in the same order.
+		 */
+		private final int[] absInfo;
+
+		private Entry(short[][] codes, int[] absInfo) {
+			this.codes = codes;
+			this.absInfo = absInfo;
+		}
+
+		/**
+		 * Capture the capabilities of a freshly probed device.
+		 */
+		static Entry capture(DeviceCapabilities capabilities, int[] deviceAbsInfo) {
+			short[][] codes = new short[InputEvent.EV_CNT][];
+			for(int type : capabilities.getTypes()) {
+				int[] typeCodes = capabilities.getCodes(type);
+				codes[type] = new short[typeCodes.length];
+				for(int i = 0; i < typeCodes.length; i++) codes[type][i] = (short) typeCodes[i];
+			}
+			short[] axes = codes[InputEvent.EV_ABS];
+			int[] absInfo = new int[axes == null ? 0 : axes.length * EventDevice.ABSINFO_INTS];
+			for(int i = 0; axes != null && i < axes.length; i++) {
+				System.arraycopy(deviceAbsInfo, axes[i] * EventDevice.ABSINFO_INTS, absInfo, i * EventDevice.ABSINFO_INTS,
+						EventDevice.ABSINFO_INTS);
+			}
+			return new Entry(codes, absInfo);
+		}
+
+		/**
+		 * Fill in a device's capability bitmaps and absinfo as if it had just been probed.
+		 * @param bits Capability bitmaps, laid out as EventDevice.capabilityBits. Must be all zero.
+		 */
+		void apply(long[] bits, int[] deviceAbsInfo) {
+			for(int type = 0; type < codes.length; type++) {
+				short[] typeCodes = codes[type];
+				if(typeCodes == null) continue;
+				bits[type / 64] |= 1L << (type % 64);
+				for(short code : typeCodes) {
+					int bit = type * EventDevice.BITMAP_LONGS * 64 + code;
+					bits[bit / 64] |= 1L << (bit % 64);
+				}
+			}
+			short[] axes = codes[InputEvent.EV_ABS];
+			for(int i = 0; axes != null && i < axes.length; i++) {
+				System.arraycopy(absInfo, i * EventDevice.ABSINFO_INTS, deviceAbsInfo, axes[i] * EventDevice.ABSINFO_INTS,
+						EventDevice.ABSINFO_INTS);
+			}
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			int types = 0;
+			for(short[] typeCodes : codes) {
+				if(typeCodes != null) types++;
+			}
+			out.writeByte(types);
+			for(int type = 0; type < codes.length; type++) {
+				if(codes[type] == null) continue;
+				out.writeByte(type);
+				out.writeShort(codes[type].length);
+				for(short code : codes[type]) out.writeShort(code);
+			}
+			for(int value : absInfo) out.writeInt(value);
+		}
+
+		private static Entry read(DataInputStream in) throws IOException {
+			short[][] codes = new short[InputEvent.EV_CNT][];
+			int types = in.readUnsignedByte();
+			for(int i = 0; i < types; i++) {
+				int type = in.readUnsignedByte();
+				if(type >= InputEvent.EV_CNT) throw new IOException("bad event type "+type);
+				short[] typeCodes = new short[in.readUnsignedShort()];
+				for(int j = 0; j < typeCodes.length; j++) {
+					typeCodes[j] = in.readShort();
+					if(typeCodes[j] < 0 || typeCodes[j] >= InputEvent.KEY_CNT) throw new IOException("bad event code "+typeCodes[j]);
+				}
+				codes[type] = typeCodes;
+			}
+			short[] axes = codes[InputEvent.EV_ABS];
+			int[] absInfo = new int[axes == null ? 0 : axes.length * EventDevice.ABSINFO_INTS];
+			for(int i = 0; i < absInfo.length; i++) absInfo[i] = in.readInt();
+			if(axes != null) {
+				for(short axis : axes) {
+					if(axis >= InputEvent.ABS_CNT) throw new IOException("bad axis "+axis);
+				}
+			}
+			return new Entry(codes, absInfo);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package com.dgis.input.evdev;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * This file is part of evdev-java.
+ *  evdev-java is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  evdev-java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with evdev-java.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The event types and codes a device supports, kept as the kernel reports them: one bitset per type.
+ * Immutable once built.
+ * @see com.dgis.input.evdev.EventDevice#getCapabilities()
+ */
+
+public class DeviceCapabilities {
+
+	private static final int[] NO_CODES = new int[0];
+
+	/**
+	 * Bitset of supported codes, indexed by event type; bits[0] is the bitset of supported types.
+	 * Null for unsupported types.
+	 */
+	private final long[][] bits = new long[InputEvent.EV_CNT][];
+
+	/**
+	 * Supported codes in increasing order, indexed by event type. Null for unsupported types.
+	 */
+	private final int[][] codes = new int[InputEvent.EV_CNT][];
+
+	/**
+	 * Boxed copy of codes, built the first time getSupportedEvents() is called.
+	 */
+	private volatile Map<Integer, List<Integer>> supportedEvents;
+
+	/**
+	 * @param capabilityBits Capability bitmaps laid out as EventDevice.capabilityBits:
+	 * rowLongs longs for each event type, with type 0 holding the bitmap of supported types.
+	 */
+	DeviceCapabilities(long[] capabilityBits, int rowLongs) {
+		for(int type = 0; type < InputEvent.EV_CNT; type++) {
+			if(type != 0 && (capabilityBits[type / 64] >>> (type % 64) & 1) == 0) continue;
+			long[] row = new long[rowLongs];
+			System.arraycopy(capabilityBits, type * rowLongs, row, 0, rowLongs);
+			bits[type] = row;
+			codes[type] = decode(row);
+		}
+	}
+
+	/**
+	 * @return The index of every set bit, in increasing order.
+	 */
+	private static int[] decode(long[] row) {
+		int count = 0;
+		for(long word : row) count += Long.bitCount(word);
+		int[] result = new int[count];
+		int n = 0;
+		for(int i = 0; i < row.length; i++) {
+			long word = row[i];
+			while(word != 0) {
+				result[n++] = i * 64 + Long.numberOfTrailingZeros(word);
+				word &= word - 1; /* Clear the lowest set bit */
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return true if the device reports events of this type.
+	 */
+	public boolean supports(int type) {
+		return type > 0 && type < InputEvent.EV_CNT && bits[type] != null;
+	}
+
+	/**
+	 * @return true if the device reports events with this type and code.
+	 */
+	public boolean supports(int type, int code) {
+		if(!supports(type) || code < 0) return false;
+		long[] row = bits[type];
+		return code / 64 < row.length && (row[code / 64] >>> (code % 64) & 1) != 0;
+	}
+
+	/**
+	 * @return The supported event types, in increasing order. Does not include EV_SYN's type 0.
+	 */
+	public int[] getTypes() {
+		int[] types = codes[0];
+		int skip = types.length > 0 && types[0] == 0 ? 1 : 0;
+		int[] result = new int[types.length - skip];
+		System.arraycopy(types, skip, result, 0, result.length);
+		return result;
+	}
+
+	/**
+	 * @return The supported codes of an event type, in increasing order. Empty if the type isn't supported.
+	 */
+	public int[] getCodes(int type) {
+		return supports(type) ? codes[type].clone() : NO_CODES;
+	}
+
+	/**
+	 * @return How many codes of an event type are supported.
+	 */
+	public int getCodeCount(int type) {
+		return supports(type) ? codes[type].length : 0;
+	}
+
+	/**
+	 * Build a table mapping each code of an event type to its position in getCodes(type), so an event's
+	 * code can be turned into a button or axis index with a single array load.
+	 * @return A table with an entry for every possible code: the index, or -1 if the code isn't supported.
+	 * @see com.dgis.input.evdev.DeviceCapabilities#lookup(short[], short)
+	 */
+	public short[] buildIndexTable(int type) {
+		short[] table = new short[InputEvent.KEY_CNT];
+		Arrays.fill(table, (short) -1);
+		int[] typeCodes = supports(type) ? codes[type] : NO_CODES;
+		for(int i = 0; i < typeCodes.length; i++) {
+			if(typeCodes[i] < table.length) table[typeCodes[i]] = (short) i;
+		}
+		return table;
+	}
+
+	/**
+	 * @return The index an event code maps to in a table from buildIndexTable(), or -1 if it has none.
+	 */
+	public static int lookup(short[] table, short code) {
+		int c = code & 0xFFFF;
+		return c < table.length ? table[c] : -1;
+	}
+
+	/**
+	 * @return A copy of the bitset of supported codes of an event type, or null if the type isn't supported.
+	 */
+	public long[] getBits(int type) {
+		return supports(type) ? bits[type].clone() : null;
+	}
+
+	/**
+	 * @return The capabilities as a map from supported event types to lists of supported event codes.
+	 * Built on first use; prefer getCodes().
+	 */
+	public Map<Integer, List<Integer>> getSupportedEvents() {
+		Map<Integer, List<Integer>> map = supportedEvents;
+		if(map == null) {
+			HashMap<Integer, List<Integer>> built = new HashMap<Integer, List<Integer>>();
+			for(int type = 1; type < InputEvent.EV_CNT; type++) {
+				if(codes[type] == null) continue;
+				ArrayList<Integer> list = new ArrayList<Integer>(codes[type].length);
+				for(int code : codes[type]) list.add(code);
+				built.put(type, Collections.unmodifiableList(list));
+			}
+			supportedEvents = map = Collections.unmodifiableMap(built);
+		}
+		return map;
+	}
+}
@@ -0,0 +1,36 @@
+package com.dgis.input.evdev;
+
+/*
+ * This file is part of evdev-java.
+ *  evdev-java is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  evdev-java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with evdev-java.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Listener for an EventDevice losing and regaining its device, e.g. when a USB cable is pulled and plugged back in.
+ * Called once per transition, from whichever thread reads the device.
+ * @see com.dgis.input.evdev.EventDevice
+ */
+
+public interface DeviceConnectionListener {
+	/**
+	 * The device stopped responding and has been closed. No input events will arrive until it is reconnected.
+	 * @param device The EventDevice that lost its device.
+	 */
+	public void deviceDisconnected(EventDevice device);
+	/**
+	 * The same device (same ID and name) reappeared at the same path and is being read again.
+	 * @param device The EventDevice that regained its device.
+	 */
+	public void deviceReconnected(EventDevice device);
+}
@@ -0,0 +1,117 @@
+package com.dgis.input.evdev;
+
+/*
+ * This file is part of evdev-java.
+ *  evdev-java is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  evdev-java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with evdev-java.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Picks out a device by what it is rather than by which event node it happens to be.
+ * Selectors are matched against the devices indexed by a DeviceWatcher, so finding one doesn't open anything.
+ * @see com.dgis.input.evdev.DeviceWatcher#find(DeviceSelector)
+ */
+
+public abstract class DeviceSelector {
+
+	/**
+	 * @return true if info describes a device this selector wants.
+	 */
+	public abstract boolean matches(InputDeviceInfo info);
+
+	/**
+	 * Select by USB (or Bluetooth) vendor and product ID, e.g. 0x045e, 0x028e for an Xbox 360 controller.
+	 */
+	public static DeviceSelector byVendorProduct(final int vendorID, final int productID) {
+		return new DeviceSelector() {
+			@Override
+			public boolean matches(InputDeviceInfo info) {
+				return (info.getVendorID() & 0xFFFF) == vendorID && (info.getProductID() & 0xFFFF) == productID;
+			}
+
+			@Override
+			public String toString() {
+				return String.format("vendor 0x%04x product 0x%04x", vendorID, productID);
+			}
+		};
+	}
+
+	/**
+	 * Select by the name the device reports, exactly.
+	 */
+	public static DeviceSelector byName(final String name) {
+		return new DeviceSelector() {
+			@Override
+			public boolean matches(InputDeviceInfo info) {
+				return info.getName().equals(name);
+			}
+
+			@Override
+			public String toString() {
+				return "name \""+name+"\"";
+			}
+		};
+	}
+
+	/**
+	 * Select by physical location, e.g. usb-0000:00:14.0-2/input0, to tell identical devices apart by port.
+	 */
+	public static DeviceSelector byPhys(final String phys) {
+		return new DeviceSelector() {
+			@Override
+			public boolean matches(InputDeviceInfo info) {
+				return info.getPhys().equals(phys);
+			}
+
+			@Override
+			public String toString() {
+				return "phys \""+phys+"\"";
+			}
+		};
+	}
+
+	/**
+	 * Select by unique identifier, for devices that report a serial number.
+	 */
+	public static DeviceSelector byUniq(final String uniq) {
+		return new DeviceSelector() {
+			@Override
+			public boolean matches(InputDeviceInfo info) {
+				return !uniq.isEmpty() && info.getUniq().equals(uniq);
+			}
+
+			@Override
+			public String toString() {
+				return "uniq \""+uniq+"\"";
+			}
+		};
+	}
+
+	/**
+	 * Select the same kind of device as like: same IDs and name, plugged in anywhere.
+	 * @see com.dgis.input.evdev.InputDeviceInfo#isSameDevice(InputDeviceInfo)
+	 */
+	public static DeviceSelector sameDeviceAs(final InputDeviceInfo like) {
+		return new DeviceSelector() {
+			@Override
+			public boolean matches(InputDeviceInfo info) {
+				return info.isSameDevice(like);
+			}
+
+			@Override
+			public String toString() {
+				return "\""+like.getName()+"\"";
+			}
+		};
+	}
+}
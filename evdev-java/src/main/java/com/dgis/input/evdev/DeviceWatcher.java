@@ -0,0 +1,317 @@
+package com.dgis.input.evdev;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeMap;
+
+/*
+ * This file is part of evdev-java.
+ *  evdev-java is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  evdev-java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with evdev-java.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Keeps an index of the evdev devices present in a directory (usually /dev/input),
+ * and tells InputDeviceListeners as devices are plugged in and removed.
+ * Uses inotify, so a device re-enumerating under a new event node is noticed as soon as
+ * udev creates it, without polling.
+ * @see com.dgis.input.evdev.DeviceWatcher#getDefault()
+ */
+
+public class DeviceWatcher {
+
+	/**
+	 * inotify_event.mask bits. File created, metadata (e.g. permissions) changed, file deleted,
+	 * and events lost because the queue overflowed.
+	 */
+	static final int IN_ATTRIB = 0x4, IN_CREATE = 0x100, IN_DELETE = 0x200, IN_Q_OVERFLOW = 0x4000;
+
+	/**
+	 * Size of struct inotify_event, not counting the name that follows it.
+	 */
+	private static final int INOTIFY_EVENT_SIZE = 16;
+
+	private static DeviceWatcher defaultWatcher;
+
+	/**
+	 * The directory being watched.
+	 */
+	private final String directory;
+
+	/**
+	 * Native inotify instance watching directory.
+	 */
+	private final int inotifyHandle;
+
+	/**
+	 * Native eventfd, signalled by close() to wake the watcher thread at once.
+	 */
+	private final int wakeHandle;
+
+	/**
+	 * Present devices, by path. Sorted so lookups are repeatable. Guarded by this.
+	 */
+	private final TreeMap<String, InputDeviceInfo> devices = new TreeMap<String, InputDeviceInfo>();
+
+	private volatile InputDeviceListener[] listeners = new InputDeviceListener[0];
+
+	/**
+	 * Serializes changes to the listeners array.
+	 */
+	private final Object listenersLock = new Object();
+
+	/**
+	 * Receives the inotify events from each read. inotify_event is in native byte order.
+	 */
+	private final byte[] eventBytes = new byte[4096];
+	private final ByteBuffer eventBuffer = ByteBuffer.wrap(eventBytes).order(ByteOrder.nativeOrder());
+
+	/**
+	 * When this is true, the watcher thread should terminate ASAP.
+	 */
+	private volatile boolean terminate = false;
+
+	/**
+	 * This thread waits for and handles changes to the directory.
+	 */
+	private Thread watcherThread;
+
+	/**
+	 * Start watching a directory of evdev device nodes. The devices already present are indexed before this returns.
+	 * @param directory The directory to watch. Usually /dev/input
+	 * @throws IOException If the directory could not be watched.
+	 */
+	public DeviceWatcher(String directory) throws IOException {
+		System.loadLibrary("evdev-java");
+		this.directory = directory;
+		inotifyHandle = inotifyInit();
+		if(inotifyHandle < 0) throw new IOException("Couldn't create inotify instance (errno "+(-inotifyHandle)+")");
+		/* Watch before scanning, so nothing created in between is missed */
+		int watch = inotifyAddWatch(inotifyHandle, directory, IN_CREATE | IN_DELETE | IN_ATTRIB);
+		if(watch < 0) {
+			EventDevice.closeHandle(inotifyHandle);
+			throw new IOException("Couldn't watch "+directory+" (errno "+(-watch)+")");
+		}
+		wakeHandle = EventDevice.createWakeHandle();
+		if(wakeHandle < 0) {
+			EventDevice.closeHandle(inotifyHandle);
+			throw new IOException("Couldn't create wakeup eventfd (errno "+(-wakeHandle)+")");
+		}
+		rescan();
+
+		watcherThread = new Thread("DeviceWatcher") {
+			@Override
+			public void run() {
+				while(!terminate) {
+					if(EventDevice.waitReadable(inotifyHandle, wakeHandle, -1) > 0) {
+						readChanges();
+					}
+				}
+			}
+		};
+		watcherThread.setDaemon(true); /* We don't want this thread to prevent the JVM from terminating */
+		watcherThread.start();
+	}
+
+	/**
+	 * @return The watcher for /dev/input shared by the whole program, started on first use.
+	 * @throws IOException If /dev/input could not be watched.
+	 */
+	public static synchronized DeviceWatcher getDefault() throws IOException {
+		if(defaultWatcher == null) defaultWatcher = new DeviceWatcher("/dev/input");
+		return defaultWatcher;
+	}
+
+	/**
+	 * Handle every queued inotify event.
+	 */
+	private void readChanges() {
+		int length;
+		while((length = inotifyRead(inotifyHandle, eventBytes)) > 0) {
+			int offset = 0;
+			while(offset + INOTIFY_EVENT_SIZE <= length) {
+				int mask = eventBuffer.getInt(offset + 4);
+				int nameLength = eventBuffer.getInt(offset + 12);
+				if((mask & IN_Q_OVERFLOW) != 0) {
+					rescan();
+				} else {
+					String name = EventDevice.parseName(Arrays.copyOfRange(eventBytes,
+							offset + INOTIFY_EVENT_SIZE, offset + INOTIFY_EVENT_SIZE + nameLength));
+					if(isEventNode(name)) {
+						String path = directory + "/" + name;
+						if((mask & IN_DELETE) != 0) deviceRemoved(path);
+						else deviceChanged(path);
+					}
+				}
+				offset += INOTIFY_EVENT_SIZE + nameLength;
+			}
+		}
+	}
+
+	private static boolean isEventNode(String name) {
+		return name.startsWith("event");
+	}
+
+	/**
+	 * A node was created, or its permissions changed. udev creates nodes before making them accessible,
+	 * so a node that can't be opened yet is tried again on its next IN_ATTRIB.
+	 */
+	private void deviceChanged(String path) {
+		synchronized(this) {
+			if(devices.containsKey(path)) return;
+		}
+		InputDeviceInfo info = InputDeviceInfo.probe(path);
+		if(info == null) return;
+		synchronized(this) {
+			if(devices.containsKey(path)) return;
+			devices.put(path, info);
+		}
+		for(InputDeviceListener il : listeners) {
+			il.deviceAdded(info);
+		}
+	}
+
+	private void deviceRemoved(String path) {
+		InputDeviceInfo info;
+		synchronized(this) {
+			info = devices.remove(path);
+		}
+		if(info == null) return;
+		for(InputDeviceListener il : listeners) {
+			il.deviceRemoved(info);
+		}
+	}
+
+	/**
+	 * Bring the index up to date with the directory's contents, after startup or after inotify lost events.
+	 */
+	private void rescan() {
+		String[] names = new File(directory).list();
+		HashSet<String> present = new HashSet<String>();
+		if(names != null) {
+			for(String name : names) {
+				if(isEventNode(name)) present.add(directory + "/" + name);
+			}
+		}
+		ArrayList<String> removed = new ArrayList<String>();
+		synchronized(this) {
+			for(String path : devices.keySet()) {
+				if(!present.contains(path)) removed.add(path);
+			}
+		}
+		for(String path : removed) {
+			deviceRemoved(path);
+		}
+		for(String path : present) {
+			deviceChanged(path);
+		}
+	}
+
+	/**
+	 * @return Every device currently present.
+	 */
+	public synchronized List<InputDeviceInfo> getDevices() {
+		return new ArrayList<InputDeviceInfo>(devices.values());
+	}
+
+	/**
+	 * Look up a present device in the index. Nothing is opened, so this is cheap enough to call for
+	 * every controller a program uses.
+	 * @return The matching device, or null if there is none. If several match, the one with the first path.
+	 */
+	public synchronized InputDeviceInfo find(DeviceSelector selector) {
+		for(InputDeviceInfo info : devices.values()) {
+			if(selector.matches(info)) return info;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds a listener to be told when devices are added and removed.
+	 * If the listener is already on the listener list,
+	 * this method has no effect.
+	 * @param list The listener to add. Must not be null.
+	 */
+	public void addListener(InputDeviceListener list) {
+		synchronized (listenersLock) {
+			InputDeviceListener[] current = listeners;
+			for(InputDeviceListener il : current) {
+				if(il == list) return;
+			}
+			InputDeviceListener[] updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = list;
+			listeners = updated;
+		}
+	}
+
+	/**
+	 * Removes a listener from this watcher.
+	 * If the listener is not on the listener list,
+	 * this method has no effect.
+	 * @param list The listener to remove. Must not be null.
+	 */
+	public void removeListener(InputDeviceListener list) {
+		synchronized (listenersLock) {
+			InputDeviceListener[] current = listeners;
+			for(int i = 0; i < current.length; i++) {
+				if(current[i] == list) {
+					InputDeviceListener[] updated = new InputDeviceListener[current.length - 1];
+					System.arraycopy(current, 0, updated, 0, i);
+					System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+					listeners = updated;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop watching and release the inotify instance.
+	 */
+	public void close() {
+		if(terminate) return;
+		terminate = true;
+		EventDevice.signalWakeHandle(wakeHandle);
+		try {
+			watcherThread.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		EventDevice.closeHandle(inotifyHandle);
+		EventDevice.closeHandle(wakeHandle);
+		synchronized(DeviceWatcher.class) {
+			if(defaultWatcher == this) defaultWatcher = null;
+		}
+	}
+
+	////BEGIN JNI METHODS////
+	/**
+	 * @return A new non-blocking inotify instance, or -errno on failure.
+	 */
+	static native int inotifyInit();
+	/**
+	 * @return The watch descriptor, or -errno on failure.
+	 */
+	static native int inotifyAddWatch(int inotifyHandle, String path, int mask);
+	/**
+	 * Read as many whole inotify_events as fit in resp.
+	 * @return The number of bytes read, or -errno (-EAGAIN when there are none left).
+	 */
+	static native int inotifyRead(int inotifyHandle, byte[] resp);
+}
@@ -1,11 +1,8 @@
 package com.dgis.input.evdev;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.channels.FileChannel;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -67,10 +64,23 @@ interface IEventDevice {
 	 * @return the name of the attached device.
 	 */
 	public String getDeviceName();
+	/**
+	 * @return the physical location of the attached device (e.g. usb-0000:00:14.0-2/input0), or "" if it has none.
+	 */
+	public String getPhys();
+	/**
+	 * @return the unique identifier (often a serial number) of the attached device, or "" if it has none.
+	 */
+	public String getUniq();
 	/**
 	 * @return A mapping from device supported event types to list of supported event codes.
+	 * Boxed and built on first use; getCapabilities() is cheaper.
 	 */
 	public Map<Integer, List<Integer>> getSupportedEvents();
+	/**
+	 * @return The event types and codes supported by the device.
+	 */
+	public DeviceCapabilities getCapabilities();
 	
 	/**
 	 * Obtains the configurable parameters of an absolute axis (value, min, max, fuzz, flatspot) from the device. 
@@ -79,6 +89,36 @@ interface IEventDevice {
 	 */
 	public InputAxisParameters getAxisParameters(int axis);
 	
+	/**
+	 * Asks the kernel to deliver only the given event types to this device, discarding the rest
+	 * before they are ever read. EV_SYN events (SYN_REPORT, SYN_DROPPED) are never masked.
+	 * The mask is set again if the device reconnects; while it is disconnected, it is only remembered.
+	 * Requires a 4.4 or newer kernel.
+	 * @param types The event types to deliver.
+	 * @return false if the kernel refused the mask.
+	 */
+	public boolean setEventTypeMask(int... types);
+	
+	/**
+	 * Asks the kernel to deliver only the given event codes of one event type to this device,
+	 * discarding the rest before they are ever read. Remembered across reconnects like
+	 * setEventTypeMask(). Requires a 4.4 or newer kernel.
+	 * @param type The event type the codes belong to. Must not be EV_SYN; use setEventTypeMask() instead.
+	 * @param codes The event codes to deliver.
+	 * @return false if the kernel refused the mask.
+	 */
+	public boolean setEventCodeMask(int type, int... codes);
+	
+	/**
+	 * Takes (or releases) an exclusive grab of the device with EVIOCGRAB: while grabbed, no other
+	 * reader of the device, including the console and X, receives its events. The grab is taken again
+	 * if the device reconnects, and released by close(). While the device is disconnected, the setting
+	 * is only remembered, and applied when it reconnects.
+	 * @param exclusive true to grab the device, false to release it.
+	 * @return false if the kernel refused, typically because another program holds the grab.
+	 */
+	public boolean setExclusive(boolean exclusive);
+	
 	/**
 	 * Adds an event listener to this device.
 	 * When an event is received from Evdev, all InputListeners registered
@@ -96,6 +136,26 @@ interface IEventDevice {
 	 */
 	public void removeListener(InputListener list);
 	
+	/**
+	 * Adds a listener to be told when the device is lost and when it comes back.
+	 * If the listener is already on the listener list,
+	 * this method has no effect.
+	 * @param list The listener to add. Must not be null.
+	 */
+	public void addConnectionListener(DeviceConnectionListener list);
+	/**
+	 * Removes a connection listener from this device.
+	 * If the listener is not on the listener list,
+	 * this method has no effect.
+	 * @param list The listener to remove. Must not be null.
+	 */
+	public void removeConnectionListener(DeviceConnectionListener list);
+	
+	/**
+	 * @return false while the device is lost (e.g. unplugged) and not yet reconnected.
+	 */
+	public boolean isConnected();
+	
 	/**
 	 * Releases all resources held by this EventDevice. No more events will be generated.
 	 * It is impossible to restart an EventDevice once this method is called. 
@@ -114,8 +174,19 @@ public class EventDevice implements IEventDevice{
 
 	/**
 	 * Notify these guys about input events.
+	 * Never modified in place: registration changes swap in a new array, so distributing an event needs no lock.
+	 */
+	private volatile InputListener[] listeners = new InputListener[0];
+	
+	/**
+	 * Notify these guys when the device is lost or comes back. Replaced like listeners.
 	 */
-	private List<InputListener> listeners = new ArrayList<InputListener>();
+	private volatile DeviceConnectionListener[] connectionListeners = new DeviceConnectionListener[0];
+	
+	/**
+	 * Serializes registration changes to listeners and connectionListeners.
+	 */
+	private final Object listenersLock = new Object();
 	
 	/**
 	 * Device filename we're using.
@@ -123,32 +194,154 @@ public class EventDevice implements IEventDevice{
 	String device;
 	
 	/**
-	 * Attached to device we're using.
+	 * Maximum number of input_event structs pulled from the kernel by a single read.
+	 */
+	static final int EVENTS_PER_READ = 64;
+
+	/**
+	 * Receives raw input_event structs read from the device.
+	 */
+	private ByteBuffer inputBuffer = ByteBuffer.allocateDirect(InputEvent.STRUCT_SIZE_BYTES * EVENTS_PER_READ);
+	
+	/**
+	 * Reused for every event read from the device, so reading allocates nothing.
 	 */
-	private FileChannel deviceInput;
-	private ByteBuffer inputBuffer = ByteBuffer.allocate(InputEvent.STRUCT_SIZE_BYTES);
+	private InputEvent currentEvent;
 
 	
 	/**
 	 * When this is true, the reader thread should terminate ASAP.
 	 */
 	private volatile boolean terminate = false;
+	
+	/**
+	 * Set once close() has been called.
+	 */
+	private boolean closed = false;
+	
+	/**
+	 * False from the moment the device stops responding until it is reopened.
+	 */
+	private volatile boolean connected = true;
+	
+	/**
+	 * Delay before the first attempt to reopen a lost device, in milliseconds.
+	 * It doubles after each failed attempt, up to RECONNECT_MAX_MS.
+	 */
+	static final int RECONNECT_MIN_MS = 10;
+	static final int RECONNECT_MAX_MS = 2000;
+	
+	private int reconnectDelayMs;
+	
+	/**
+	 * System.nanoTime() at which the next attempt to reopen a lost device is due.
+	 */
+	private long nextReconnectNanos;
 
 	/**
-	 * This thread repeatedly calls readEvent().
+	 * This thread repeatedly waits for input and reads it. Null when the device is serviced by a reactor or polled.
 	 */
 	private Thread readerThread;
 	
+	/**
+	 * Native eventfd signalled by close() to wake readerThread out of its wait at once.
+	 */
+	private int wakeHandle = -1;
+	
+	/**
+	 * Priority and CPU affinity of readerThread.
+	 */
+	private final ThreadScheduling readerScheduling = new ThreadScheduling();
+	
+	/**
+	 * Services this device instead of readerThread, if not null.
+	 */
+	private EventDeviceReactor reactor;
+	
+	/**
+	 * Native handle (file descriptor) of the open device, used for every ioctl and read,
+	 * or -1 if closed or disconnected. Always non-blocking; the reader thread waits for it to become readable instead.
+	 */
+	private volatile int handle = -1;
+	
+	/**
+	 * Held while pollAvailable() reads from or reopens handle, so close() never pulls it out from under a read.
+	 */
+	private final Object handleLock = new Object();
+	
+	/**
+	 * Maximum number of events writeEvents() takes at once, leaving room for its SYN_REPORT.
+	 */
+	public static final int MAX_EVENTS_PER_WRITE = 63;
+	
+	/**
+	 * Holds input_event structs being written to the device. Guarded by outputLock.
+	 */
+	private final ByteBuffer outputBuffer = ByteBuffer.allocateDirect(InputEvent.STRUCT_SIZE_BYTES * (MAX_EVENTS_PER_WRITE + 1))
+			.order(ByteOrder.LITTLE_ENDIAN);
+	
+	/**
+	 * Held around every write and ioctl made for output (or state queries from other threads), and while handle
+	 * is closed or replaced, so they never go to a closed descriptor (or one reused by an unrelated file). Never held while calling listeners.
+	 */
+	private final Object outputLock = new Object();
+	
 	private short[] idResponse = new short[4];
 
 	private int evdevVersionResponse;
 
 	private String deviceNameResponse;
 	
+	private String physResponse, uniqResponse;
+	
 	/**
-	 * Maps supported event types (keys) to lists of supported event codes.
+	 * Where devices find their capabilities without probing, if set.
 	 */
-	private HashMap<Integer, List<Integer>> supportedEvents = new HashMap<Integer, List<Integer>>();
+	private static volatile CapabilityCache capabilityCache;
+	
+	/**
+	 * Reported as the name of devices that don't have one.
+	 */
+	static final String UNKNOWN_NAME = "Unknown Device";
+	
+	/**
+	 * Number of longs in each event type's capability bitmap, enough for the largest (EV_KEY).
+	 * Also the size of the bitmap filled by readKeyStates().
+	 */
+	public static final int BITMAP_LONGS = NBITS(InputEvent.KEY_CNT);
+	
+	/**
+	 * Number of ints describing each axis: value, min, max, fuzz, flat, resolution.
+	 */
+	public static final int ABSINFO_INTS = 6;
+	
+	/**
+	 * Capability bitmaps as reported by probeDevice(). Event type t occupies
+	 * longs [t*BITMAP_LONGS, (t+1)*BITMAP_LONGS); type 0 holds the bitmap of supported types.
+	 */
+	private long[] capabilityBits = new long[InputEvent.EV_CNT * BITMAP_LONGS];
+	
+	/**
+	 * input_absinfo of every supported absolute axis at the time the device was opened,
+	 * ABSINFO_INTS per axis, indexed by axis code.
+	 */
+	private int[] absInfo = new int[InputEvent.ABS_CNT * ABSINFO_INTS];
+	
+	/**
+	 * EVIOCSMASK bitmaps requested for this device, indexed by event type, so they can be
+	 * set again after a reconnect. Null for types never masked. Guarded by outputLock.
+	 */
+	private long[][] eventMasks = new long[InputEvent.EV_CNT][];
+	
+	/**
+	 * Set while this device should hold an EVIOCGRAB grab, so it is taken again after a reconnect.
+	 */
+	private volatile boolean exclusive = false;
+	
+	/**
+	 * Supported event types and codes, decoded from capabilityBits.
+	 */
+	private DeviceCapabilities capabilities;
 	
 	
 	/**
@@ -163,42 +356,100 @@ public class EventDevice implements IEventDevice{
 	 * @throws IOException If the device is not found, or is otherwise inaccessible.
 	 */
 	public EventDevice(String device) throws IOException {
+		this(device, null, true);
+	}
+	
+	/**
+	 * Create an EventDevice by connecting to the provided device filename, without starting a reader thread.
+	 * Instead, the given reactor waits for input on this device and distributes its events from the reactor thread.
+	 * @param device The path to the device file. Usually one of /dev/input/event*
+	 * @param reactor The reactor that will service this device.
+	 * @throws IOException If the device is not found, or is otherwise inaccessible.
+	 */
+	public EventDevice(String device, EventDeviceReactor reactor) throws IOException {
+		this(device, reactor, false);
+		if(reactor == null) throw new NullPointerException("reactor");
+	}
+	
+	/**
+	 * Create an EventDevice by connecting to the provided device filename.
+	 * Without a reader thread, the device is opened non-blocking and nothing is read until
+	 * pollAvailable() is called, so events are distributed on the caller's thread.
+	 * @param device The path to the device file. Usually one of /dev/input/event*
+	 * @param startReader Whether to start a reader thread, as EventDevice(String) does.
+	 * @throws IOException If the device is not found, or is otherwise inaccessible.
+	 * @see #pollAvailable()
+	 */
+	public EventDevice(String device, boolean startReader) throws IOException {
+		this(device, null, startReader);
+	}
+	
+	private EventDevice(String device, EventDeviceReactor reactor, boolean startReader) throws IOException {
 		System.loadLibrary("evdev-java");
 		this.device = device;
+		this.reactor = reactor;
 		inputBuffer.order(ByteOrder.LITTLE_ENDIAN);
-		initDevice();
+		currentEvent = new InputEvent(device);
+		initDevice(startReader);
 	}
 	
 	/**
-	 * Get various ID info. Then, open the file, get the channel, and start the reader thread.
+	 * Open the file once and keep its handle. Then get various ID info through it, and start the reader thread if asked to.
 	 * @throws IOException
 	 */
-	private void initDevice() throws IOException {
+	private void initDevice(boolean startReader) throws IOException {
 		
-		if(!ioctlGetID(device, idResponse)) {
-			System.err.println("WARN: couldn't get device ID: "+device);
-			Arrays.fill(idResponse, (short)0);
-		}
-		evdevVersionResponse = ioctlGetEvdevVersion(device);
-		byte[] devName = new byte[255];
-		if(ioctlGetDeviceName(device, devName)) {
-			deviceNameResponse = new String(devName);
-		} else {
-			System.err.println("WARN: couldn't get device name: "+device);
-			deviceNameResponse = "Unknown Device";
+		handle = openHandle(device, true, true);
+		if(handle < 0) throw new IOException("Couldn't open "+device+" (errno "+(-handle)+")");
+		
+		CapabilityCache cache = capabilityCache;
+		if(cache == null || !loadCachedCapabilities(cache)) {
+			byte[] devName = new byte[255];
+			evdevVersionResponse = probeDevice(handle, idResponse, devName, capabilityBits, absInfo);
+			if(evdevVersionResponse < 0) {
+				closeHandle(handle);
+				throw new IOException("Couldn't probe "+device+" (errno "+(-evdevVersionResponse)+")");
+			}
+			deviceNameResponse = parseName(devName);
+			if(deviceNameResponse.isEmpty()) {
+				System.err.println("WARN: couldn't get device name: "+device);
+				deviceNameResponse = UNKNOWN_NAME;
+			}
+			
+			readSupportedEvents();
+			if(cache != null) {
+				cache.put(CapabilityCache.key(evdevVersionResponse, idResponse, deviceNameResponse),
+						CapabilityCache.Entry.capture(capabilities, absInfo));
+			}
 		}
+		physResponse = readString(handle, false);
+		uniqResponse = readString(handle, true);
 		
-		readSupportedEvents();
+		if(reactor != null) {
+			reactor.register(this);
+			return;
+		}
+		if(!startReader) return;
 		
-		FileInputStream fis = new FileInputStream(device);
-		deviceInput = fis.getChannel();
+		wakeHandle = createWakeHandle();
+		if(wakeHandle < 0) {
+			closeHandle(handle);
+			throw new IOException("Couldn't create wakeup eventfd (errno "+(-wakeHandle)+")");
+		}
 		
 		readerThread = new Thread() {
 			@Override
 			public void run() {
+				readerScheduling.threadStarted();
 				while(!terminate) {
-					InputEvent ev = readEvent();
-					distributeEvent(ev);
+					if(!connected) {
+						/* Sleeps until the next reconnection attempt is due, or close() signals wakeHandle */
+						waitReadable(-1, wakeHandle, millisUntilReconnect());
+						if(!terminate) tryReconnect();
+					/* Sleeps until input arrives, or close() signals wakeHandle */
+					} else if(waitReadable(handle, wakeHandle, -1) > 0 && !terminate) {
+						readAvailable();
+					}
 				}
 			}
 		};
@@ -208,41 +459,57 @@ public class EventDevice implements IEventDevice{
 	}
 
 	/**
-	 * Get supported events from device, and place into supportedEvents.
-	 * Adapted from evtest.c.
+	 * Identify the device with the cheap version, ID and name ioctls, and if the cache knows it,
+	 * fill in its capabilities from there instead of probing them.
+	 * @return false if the device must be probed.
+	 */
+	private boolean loadCachedCapabilities(CapabilityCache cache) {
+		byte[] devName = new byte[255];
+		evdevVersionResponse = ioctlGetEvdevVersion(handle);
+		if(evdevVersionResponse <= 0 || !ioctlGetID(handle, idResponse) || !ioctlGetDeviceName(handle, devName)) return false;
+		String name = parseName(devName);
+		if(name.isEmpty()) name = UNKNOWN_NAME;
+		CapabilityCache.Entry entry = cache.get(CapabilityCache.key(evdevVersionResponse, idResponse, name));
+		if(entry == null) return false;
+		deviceNameResponse = name;
+		entry.apply(capabilityBits, absInfo);
+		readSupportedEvents();
+		return true;
+	}
+
+	/**
+	 * Decode the supported events from the capability bitmaps, and place into capabilities.
 	 */
 	private void readSupportedEvents() {
-		//System.out.println("Detecting device capabilities...");
-		long[][] bit = new long[InputEvent.EV_MAX][NBITS(InputEvent.KEY_MAX)];
-		ioctlEVIOCGBIT(device, bit[0], 0, bit[0].length);
-		/* Loop over event types */
-		for (int i = 0; i < InputEvent.EV_MAX; i++) {
-			if (testBit(bit[0], i)) { /* Is this event supported? */
-				//System.out.printf("  Event type %d\n", i);
-				if (i==0) continue;
-				ArrayList<Integer> supportedTypes = new ArrayList<Integer>();
-				ioctlEVIOCGBIT(device, bit[i], i, InputEvent.KEY_MAX);
-				/* Loop over event codes for type */
-				for (int j = 0; j < InputEvent.KEY_MAX; j++) 
-					if (testBit(bit[i], j)) { /* Is this event code supported? */
-						//System.out.printf("    Event code %d\n", j);
-						supportedTypes.add(j);
-					}
-				supportedEvents.put(i, supportedTypes);
-			}
-		}
+		capabilities = new DeviceCapabilities(capabilityBits, BITMAP_LONGS);
+	}
+	
+	/**
+	 * Read the device's phys or uniq string. Many devices have neither.
+	 * @return The string, or "" if the device doesn't report one.
+	 */
+	static String readString(int handle, boolean uniq) {
+		byte[] resp = new byte[255];
+		if(!(uniq ? ioctlGetUniq(handle, resp) : ioctlGetPhys(handle, resp))) return "";
+		return parseName(resp);
 	}
 	
-	private boolean testBit(long[] array, int bit) {
-		return ((array[LONG(bit)] >>> OFF(bit)) & 1)!=0;
+	/**
+	 * @return The NUL-terminated name filled in by probeDevice(), or "" if there is none.
+	 */
+	static String parseName(byte[] devName) {
+		int nameLength = 0;
+		while(nameLength < devName.length && devName[nameLength] != 0) nameLength++;
+		return new String(devName, 0, nameLength);
 	}
+	
 	private int LONG(int x) {
 		return x/(64);
 	}
 	private int OFF(int x) {
 		return x%(64);
 	}
-	private int NBITS(int x) {
+	private static int NBITS(int x) {
 		return ((((x)-1)/(8*8))+1);
 	}
 
@@ -251,30 +518,265 @@ public class EventDevice implements IEventDevice{
 	 * @param ev The event to distribute.
 	 */
 	private void distributeEvent(InputEvent ev) {
-		synchronized (listeners) {	
-			for(InputListener il : listeners) {
-				il.event(ev);
+		for(InputListener il : listeners) {
+			il.event(ev);
+		}
+	}
+
+	/**
+	 * Decode each struct in the first length bytes of inputBuffer into the reused event and hand it out.
+	 */
+	private void distributeBuffer(int length) {
+		for(int offset = 0; offset < length; offset += InputEvent.STRUCT_SIZE_BYTES) {
+			currentEvent.decode(inputBuffer, offset);
+			distributeEvent(currentEvent);
+		}
+	}
+
+	/**
+	 * Read every event pending on the device in as few reads as possible, and distribute them
+	 * to the listeners on the calling thread. Returns immediately if nothing is pending.
+	 * Only for devices opened without a reader thread; this is also how a reactor services its devices.
+	 * While the device is disconnected, this attempts to reopen it whenever the backoff delay has passed.
+	 * @return The number of events distributed, or -1 if the device has been closed.
+	 * @throws IllegalStateException If this device has its own reader thread.
+	 */
+	public int pollAvailable() {
+		if(readerThread != null) throw new IllegalStateException("EventDevice "+device+" has a reader thread");
+		synchronized (handleLock) {
+			if(closed) return -1;
+			if(!connected && !tryReconnect()) return 0;
+			return readAvailable();
+		}
+	}
+	
+	/**
+	 * Read and distribute every pending event, in reads of up to EVENTS_PER_READ events each.
+	 * The kernel only ever returns whole structs. If the read fails, the device is treated as lost.
+	 * @return The number of events distributed.
+	 */
+	private int readAvailable() {
+		int capacity = inputBuffer.capacity();
+		int total = 0;
+		int length;
+		do {
+			length = readHandle(handle, inputBuffer, capacity);
+			if(length == -EAGAIN) break;
+			if(length <= 0) {
+				disconnect(-length);
+				break;
+			}
+			distributeBuffer(length);
+			total += length / InputEvent.STRUCT_SIZE_BYTES;
+		} while(length == capacity); /* A short read means the kernel queue is empty */
+		return total;
+	}
+	
+	/**
+	 * Close a handle that stopped working (typically ENODEV after an unplug), tell the connection
+	 * listeners once, and schedule the first reconnection attempt.
+	 */
+	private void disconnect(int errno) {
+		System.err.println("WARN: lost "+device+" (errno "+errno+"), will keep trying to reopen it");
+		if(reactor != null) reactor.deviceDisconnected(this);
+		synchronized (outputLock) {
+			closeHandle(handle);
+			handle = -1;
+		}
+		connected = false;
+		reconnectDelayMs = RECONNECT_MIN_MS;
+		nextReconnectNanos = System.nanoTime() + reconnectDelayMs * 1000000L;
+		for(DeviceConnectionListener l : connectionListeners) {
+			l.deviceDisconnected(this);
+		}
+	}
+	
+	/**
+	 * Reopen a lost device if a reconnection attempt is due. Only a device with the same ID and name
+	 * as the original is accepted. On failure, the delay until the next attempt is doubled.
+	 * @return true if the device is connected again.
+	 */
+	private boolean tryReconnect() {
+		if(System.nanoTime() - nextReconnectNanos < 0) return false;
+		int newHandle = openHandle(device, true, true);
+		if(newHandle >= 0 && !isSameDevice(newHandle)) {
+			closeHandle(newHandle);
+			newHandle = -1;
+		}
+		if(newHandle < 0) {
+			reconnectDelayMs = Math.min(reconnectDelayMs * 2, RECONNECT_MAX_MS);
+			nextReconnectNanos = System.nanoTime() + reconnectDelayMs * 1000000L;
+			return false;
+		}
+		
+		boolean grabFailed;
+		synchronized (outputLock) {
+			handle = newHandle;
+			for(int type = 0; type < eventMasks.length; type++) {
+				if(eventMasks[type] != null) ioctlEVIOCSMASK(handle, type, eventMasks[type]);
 			}
+			grabFailed = exclusive && ioctlEVIOCGRAB(handle, true) < 0;
+		}
+		if(grabFailed) {
+			System.err.println("WARN: couldn't grab "+device+" again after reconnecting");
+		}
+		connected = true;
+		if(reactor != null) reactor.register(this);
+		System.err.println("INFO: reopened "+device);
+		for(DeviceConnectionListener l : connectionListeners) {
+			l.deviceReconnected(this);
 		}
+		return true;
+	}
+	
+	/**
+	 * Probe a newly opened handle, and refresh absInfo from it if it is the device we lost.
+	 * @return true if the ID and name match the original device.
+	 */
+	private boolean isSameDevice(int newHandle) {
+		short[] id = new short[idResponse.length];
+		byte[] devName = new byte[255];
+		int[] newAbsInfo = new int[absInfo.length];
+		if(probeDevice(newHandle, id, devName, new long[capabilityBits.length], newAbsInfo) < 0) return false;
+		String name = parseName(devName);
+		if(!Arrays.equals(id, idResponse) || !(name.isEmpty() ? UNKNOWN_NAME : name).equals(deviceNameResponse)) return false;
+		System.arraycopy(newAbsInfo, 0, absInfo, 0, absInfo.length);
+		return true;
+	}
+	
+	/**
+	 * @return Milliseconds until the next reconnection attempt is due, rounded up.
+	 */
+	int millisUntilReconnect() {
+		long nanos = nextReconnectNanos - System.nanoTime();
+		return nanos <= 0 ? 0 : (int) (nanos / 1000000L) + 1;
+	}
+	
+	/**
+	 * Run the reader thread under the SCHED_FIFO real-time policy, so it preempts normal threads
+	 * as soon as input arrives. Requires CAP_SYS_NICE or a suitable RLIMIT_RTPRIO.
+	 * @param priority 1 (lowest) to 99 (highest), or 0 to return to normal scheduling.
+	 * @return false if the kernel refused the change.
+	 * @throws IllegalStateException If this device has no reader thread. Configure the reactor instead.
+	 */
+	public boolean setReaderPriority(int priority) {
+		if(readerThread == null) throw new IllegalStateException("EventDevice "+device+" has no reader thread");
+		return readerScheduling.setPriority(priority);
+	}
+	
+	/**
+	 * Restrict the reader thread to the given CPUs.
+	 * @param cpuMask Bit n set allows the thread to run on CPU n.
+	 * @return false if the kernel refused the change.
+	 * @throws IllegalStateException If this device has no reader thread. Configure the reactor instead.
+	 */
+	public boolean setReaderAffinity(long cpuMask) {
+		if(readerThread == null) throw new IllegalStateException("EventDevice "+device+" has no reader thread");
+		return readerScheduling.setAffinity(cpuMask);
+	}
+	
+	int getHandle() {
+		return handle;
+	}
+	
+	/**
+	 * Copy the input_absinfo probed when the device was opened (or taken from the capability cache),
+	 * without asking the device again. min, max, fuzz, flat and resolution don't change; value may be stale.
+	 * @param axis The axis number (an event code under event type 3 (abs)).
+	 * @param resp Receives ABSINFO_INTS values: value, min, max, fuzz, flat, resolution.
+	 */
+	public void getProbedAbsInfo(int axis, int[] resp) {
+		System.arraycopy(absInfo, axis * ABSINFO_INTS, resp, 0, ABSINFO_INTS);
 	}
 
 	/**
-	 * Obtain an InputEvent from the input channel. Delegate to InputEvent for parsing.
-	 * @return
+	 * Write one event to the device, e.g. EV_FF to start or stop an uploaded effect.
+	 * Needs the device to have been opened for writing, which happens whenever the permissions allow.
+	 * @return 0, or -errno on failure (-ENODEV while disconnected).
 	 */
-	private InputEvent readEvent() {
-		try {
-			/* Read exactly the amount of bytes specified by InputEvent.STRUCT_SIZE_BYTES (intrinsic size of inputBuffer)*/
-			inputBuffer.clear();
-			while(inputBuffer.hasRemaining()) deviceInput.read(inputBuffer);
-			
-			/* We want to read now */
-			inputBuffer.flip();
-			
-			/* Delegate parsing to InputEvent.parse() */
-			return InputEvent.parse(inputBuffer.asShortBuffer(), device);
-		} catch (IOException e ) { 
-			return null;
+	public int writeEvent(int type, int code, int value) {
+		synchronized (outputLock) {
+			if(handle < 0) return -ENODEV;
+			InputEvent.encode(outputBuffer, 0, type, code, value);
+			int result = writeHandle(handle, outputBuffer, InputEvent.STRUCT_SIZE_BYTES);
+			return result < 0 ? result : 0;
+		}
+	}
+	
+	/**
+	 * Write several events of one type, followed by a SYN_REPORT, in a single write() so the device
+	 * applies them together, e.g. EV_LED events setting a row of indicators.
+	 * @param codes The event codes, count of them used.
+	 * @param values The value of each code.
+	 * @param count How many events to write. At most MAX_EVENTS_PER_WRITE.
+	 * @return 0, or -errno on failure (-ENODEV while disconnected).
+	 */
+	public int writeEvents(int type, int[] codes, int[] values, int count) {
+		if(count < 0 || count > MAX_EVENTS_PER_WRITE) throw new IllegalArgumentException("Bad event count: "+count);
+		synchronized (outputLock) {
+			if(handle < 0) return -ENODEV;
+			int offset = 0;
+			for(int i = 0; i < count; i++) {
+				InputEvent.encode(outputBuffer, offset, type, codes[i], values[i]);
+				offset += InputEvent.STRUCT_SIZE_BYTES;
+			}
+			InputEvent.encode(outputBuffer, offset, InputEvent.EV_SYN, InputEvent.SYN_REPORT, 0);
+			offset += InputEvent.STRUCT_SIZE_BYTES;
+			int result = writeHandle(handle, outputBuffer, offset);
+			return result < 0 ? result : 0;
+		}
+	}
+	
+	/**
+	 * Upload a rumble force-feedback effect, or update one already uploaded. Updating an effect that is
+	 * playing changes its magnitudes without restarting it. Start it with writeEvent(EV_FF, id, 1).
+	 * @param id The id of the effect to update, or -1 to upload a new one.
+	 * @param strong Magnitude of the strong (low frequency) motor, 0 to 0xffff.
+	 * @param weak Magnitude of the weak (high frequency) motor, 0 to 0xffff.
+	 * @param lengthMs How long the effect plays once started, in milliseconds. 0 plays it until stopped.
+	 * @return The effect's id, or -errno on failure. An id is only valid on the handle it was uploaded to,
+	 * so ids are lost when the device reconnects.
+	 */
+	public int uploadRumbleEffect(int id, int strong, int weak, int lengthMs) {
+		synchronized (outputLock) {
+			if(handle < 0) return -ENODEV;
+			return ioctlEVIOCSFF(handle, id, strong, weak, lengthMs);
+		}
+	}
+	
+	/**
+	 * Ask the device which keys and buttons are down right now (EVIOCGKEY), e.g. to catch up
+	 * after SYN_DROPPED or a reconnect, when the events saying so were lost.
+	 * @param resp Receives a bitmap of BITMAP_LONGS longs, with bit n set if key code n is down.
+	 * @return false if the device couldn't be asked, e.g. because it is disconnected.
+	 */
+	public boolean readKeyStates(long[] resp) {
+		synchronized (outputLock) {
+			return handle >= 0 && ioctlEVIOCGKEY(handle, resp);
+		}
+	}
+	
+	/**
+	 * Ask the device for an axis' current input_absinfo (EVIOCGABS), e.g. to catch up after
+	 * SYN_DROPPED or a reconnect. Unlike getProbedAbsInfo(), value is up to date.
+	 * @param axis The axis number (an event code under event type 3 (abs)).
+	 * @param resp Receives ABSINFO_INTS values: value, min, max, fuzz, flat, resolution.
+	 * @return false if the device couldn't be asked, e.g. because it is disconnected.
+	 */
+	public boolean readAbsInfo(int axis, int[] resp) {
+		synchronized (outputLock) {
+			return handle >= 0 && ioctlEVIOCGABS(handle, resp, axis);
+		}
+	}
+	
+	/**
+	 * Stop and free an uploaded force-feedback effect.
+	 * @return 0, or -errno on failure.
+	 */
+	public int removeEffect(int id) {
+		synchronized (outputLock) {
+			if(handle < 0) return -ENODEV;
+			return ioctlEVIOCRMFF(handle, id);
 		}
 	}
 
@@ -283,16 +785,25 @@ public class EventDevice implements IEventDevice{
 	 */
 	@Override
 	public void close() {
-		terminate=true;
-		try {
-			readerThread.join();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+		if(readerThread != null && !terminate) {
+			terminate=true;
+			signalWakeHandle(wakeHandle);
+			try {
+				readerThread.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			closeHandle(wakeHandle);
 		}
-		try {
-			deviceInput.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+		synchronized (handleLock) {
+			if(closed) return;
+			closed = true;
+			if(reactor != null) reactor.unregister(this);
+			if(handle >= 0 && exclusive) ioctlEVIOCGRAB(handle, false);
+			synchronized (outputLock) {
+				if(handle >= 0) closeHandle(handle);
+				handle = -1;
+			}
 		}
 	}
 
@@ -312,6 +823,22 @@ public class EventDevice implements IEventDevice{
 		return deviceNameResponse;
 	}
 
+	/**
+	 * @see com.dgis.input.evdev.IEventDevice#getPhys()
+	 */
+	@Override
+	public String getPhys() {
+		return physResponse;
+	}
+
+	/**
+	 * @see com.dgis.input.evdev.IEventDevice#getUniq()
+	 */
+	@Override
+	public String getUniq() {
+		return uniqResponse;
+	}
+
 	/**
 	 * @see com.dgis.input.evdev.IEventDevice#getProductID()
 	 */
@@ -326,7 +853,15 @@ public class EventDevice implements IEventDevice{
 	 */
 	@Override
 	public Map<Integer, List<Integer>> getSupportedEvents() {
-		return supportedEvents;
+		return capabilities.getSupportedEvents();
+	}
+
+	/**
+	 * @see com.dgis.input.evdev.IEventDevice#getCapabilities()
+	 */
+	@Override
+	public DeviceCapabilities getCapabilities() {
+		return capabilities;
 	}
 
 	/**
@@ -363,13 +898,78 @@ public class EventDevice implements IEventDevice{
 		return params;
 	}
 
+	/**
+	 * @see com.dgis.input.evdev.IEventDevice#setEventTypeMask(int...)
+	 */
+	@Override
+	public boolean setEventTypeMask(int... types) {
+		return setEventMask(InputEvent.EV_SYN, types);
+	}
+
+	/**
+	 * @see com.dgis.input.evdev.IEventDevice#setEventCodeMask(int, int...)
+	 */
+	@Override
+	public boolean setEventCodeMask(int type, int... codes) {
+		if(type <= InputEvent.EV_SYN || type > InputEvent.EV_MAX) throw new IllegalArgumentException("Bad event type: "+type);
+		return setEventMask(type, codes);
+	}
+	
+	/**
+	 * Set the EVIOCSMASK bitmap of one event type; type EV_SYN holds the mask of event types.
+	 */
+	private boolean setEventMask(int type, int[] codes) {
+		long[] mask = new long[BITMAP_LONGS];
+		for(int code : codes) {
+			if(code < 0 || code >= BITMAP_LONGS * 64) throw new IllegalArgumentException("Bad event code: "+code);
+			mask[LONG(code)] |= 1L << OFF(code);
+		}
+		int result;
+		synchronized (outputLock) {
+			/* Recorded first, so a reconnect applies it even if the device is lost right now */
+			eventMasks[type] = mask;
+			if(handle < 0) return true;
+			result = ioctlEVIOCSMASK(handle, type, mask);
+		}
+		if(result < 0) {
+			System.err.println("WARN: couldn't set event mask for type "+type+" on "+device+" (errno "+(-result)+")");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @see com.dgis.input.evdev.IEventDevice#setExclusive(boolean)
+	 */
+	@Override
+	public boolean setExclusive(boolean exclusive) {
+		/* Recorded first, so a reconnect applies it even if the device is lost right now */
+		this.exclusive = exclusive;
+		int result;
+		synchronized (outputLock) {
+			if(handle < 0) return true;
+			result = ioctlEVIOCGRAB(handle, exclusive);
+		}
+		if(result < 0) {
+			System.err.println("WARN: couldn't "+(exclusive ? "grab " : "release ")+device+" (errno "+(-result)+")");
+			return false;
+		}
+		return true;
+	}
+
 	/**
 	 * @see com.dgis.input.evdev.IEventDevice#addListener(com.dgis.input.evdev.InputListener)
 	 */
 	@Override
 	public void addListener(InputListener list) {
-		synchronized (listeners) {
-			listeners.add(list);
+		synchronized (listenersLock) {
+			InputListener[] current = listeners;
+			for(InputListener il : current) {
+				if(il == list) return;
+			}
+			InputListener[] updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = list;
+			listeners = updated;
 		}
 	}
 
@@ -378,22 +978,163 @@ public class EventDevice implements IEventDevice{
 	 */
 	@Override
 	public void removeListener(InputListener list) {
-		synchronized (listeners) {
-			listeners.remove(list);
+		synchronized (listenersLock) {
+			InputListener[] current = listeners;
+			for(int i = 0; i < current.length; i++) {
+				if(current[i] == list) {
+					InputListener[] updated = new InputListener[current.length - 1];
+					System.arraycopy(current, 0, updated, 0, i);
+					System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+					listeners = updated;
+					return;
+				}
+			}
 		}
 	}
 	
 	
+	/**
+	 * @see com.dgis.input.evdev.IEventDevice#addConnectionListener(com.dgis.input.evdev.DeviceConnectionListener)
+	 */
+	@Override
+	public void addConnectionListener(DeviceConnectionListener list) {
+		synchronized (listenersLock) {
+			DeviceConnectionListener[] current = connectionListeners;
+			for(DeviceConnectionListener l : current) {
+				if(l == list) return;
+			}
+			DeviceConnectionListener[] updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = list;
+			connectionListeners = updated;
+		}
+	}
+
+	/**
+	 * @see com.dgis.input.evdev.IEventDevice#removeConnectionListener(com.dgis.input.evdev.DeviceConnectionListener)
+	 */
+	@Override
+	public void removeConnectionListener(DeviceConnectionListener list) {
+		synchronized (listenersLock) {
+			DeviceConnectionListener[] current = connectionListeners;
+			for(int i = 0; i < current.length; i++) {
+				if(current[i] == list) {
+					DeviceConnectionListener[] updated = new DeviceConnectionListener[current.length - 1];
+					System.arraycopy(current, 0, updated, 0, i);
+					System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+					connectionListeners = updated;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @see com.dgis.input.evdev.IEventDevice#isConnected()
+	 */
+	@Override
+	public boolean isConnected() {
+		return connected;
+	}
+	
+	/**
+	 * Have every EventDevice opened from now on take its capabilities from cache, if the cache has seen it,
+	 * instead of probing every capability bitmap and axis. Devices the cache hasn't seen are probed and added.
+	 * @param cache The cache to use, or null to always probe.
+	 */
+	public static void setCapabilityCache(CapabilityCache cache) {
+		capabilityCache = cache;
+	}
+	
 	public String getDevicePath() {
 		return device;
 	}
 
+	/**
+	 * errno value returned (negated) by readHandle() when a non-blocking handle has nothing to read.
+	 */
+	static final int EAGAIN = 11;
+	
+	/**
+	 * errno value for a device that has gone away; returned (negated) by the output methods while disconnected.
+	 */
+	public static final int ENODEV = 19;
+
 	////BEGIN JNI METHODS////
-	native boolean ioctlGetID(String device, short[] resp);
-	native int ioctlGetEvdevVersion(String device);
-	native boolean ioctlGetDeviceName(String device, byte[] resp);
-	native boolean ioctlEVIOCGBIT(String device, long[] resp, int start, int stop);
-	native boolean ioctlEVIOCGABS(String device, int[] resp, int axis);
+	/**
+	 * Open the device file, optionally with O_NONBLOCK. A writable open falls back to read-only
+	 * if the device may not be written to.
+	 * @return The file descriptor, or -errno on failure.
+	 */
+	static native int openHandle(String device, boolean nonBlocking, boolean writable);
+	static native void closeHandle(int handle);
+	/**
+	 * Read up to length bytes from handle into the start of a direct buffer.
+	 * @return The number of bytes read, 0 at end of file, or -errno on failure.
+	 */
+	static native int readHandle(int handle, ByteBuffer buffer, int length);
+	/**
+	 * Write length bytes from the start of a direct buffer to handle.
+	 * @return The number of bytes written, or -errno on failure.
+	 */
+	static native int writeHandle(int handle, ByteBuffer buffer, int length);
+	/**
+	 * @return A new non-blocking eventfd, or -errno on failure.
+	 */
+	static native int createWakeHandle();
+	/**
+	 * Make a wake handle readable, releasing anything waiting on it. It stays readable from then on.
+	 */
+	static native void signalWakeHandle(int wakeHandle);
+	/**
+	 * Wait until handle is readable (or has failed), wakeHandle has been signalled, or the timeout expires.
+	 * @param handle The handle to wait for, or -1 to only wait on wakeHandle.
+	 * @param timeoutMillis Maximum wait, or -1 to wait forever.
+	 * @return 1 if handle is readable or has failed, 0 otherwise.
+	 */
+	static native int waitReadable(int handle, int wakeHandle, int timeoutMillis);
+	/**
+	 * Read everything needed to describe a device in one call: EVIOCGVERSION, EVIOCGID, EVIOCGNAME,
+	 * every supported type's EVIOCGBIT, and EVIOCGABS for every supported axis.
+	 * @param id Receives the ID_BUS, ID_VENDOR, ID_PRODUCT and ID_VERSION.
+	 * @param name Receives the NUL-terminated device name.
+	 * @param bits Receives the capability bitmaps, laid out as capabilityBits.
+	 * @param absInfo Receives the input_absinfo of each supported axis, laid out as absInfo.
+	 * @return The evdev version, or -errno if the device couldn't be probed.
+	 */
+	static native int probeDevice(int handle, short[] id, byte[] name, long[] bits, int[] absInfo);
+	static native boolean ioctlGetID(int handle, short[] resp);
+	static native int ioctlGetEvdevVersion(int handle);
+	static native boolean ioctlGetDeviceName(int handle, byte[] resp);
+	static native boolean ioctlGetPhys(int handle, byte[] resp);
+	static native boolean ioctlGetUniq(int handle, byte[] resp);
+	static native boolean ioctlEVIOCGBIT(int handle, long[] resp, int start, int stop);
+	/**
+	 * @param resp Receives the bitmap of keys currently down.
+	 */
+	static native boolean ioctlEVIOCGKEY(int handle, long[] resp);
+	/**
+	 * @param codes Bitmap of the codes (or, for type 0, the types) to deliver.
+	 * @return 0, or -errno on failure.
+	 */
+	static native int ioctlEVIOCSMASK(int handle, int type, long[] codes);
+	/**
+	 * @param resp Receives the axis' input_absinfo: value, min, max, fuzz, flat, resolution.
+	 */
+	static native boolean ioctlEVIOCGABS(int handle, int[] resp, int axis);
+	/**
+	 * Grab (or release) the device for this handle alone.
+	 * @return 0, or -errno on failure.
+	 */
+	static native int ioctlEVIOCGRAB(int handle, boolean grab);
+	/**
+	 * Upload (id -1) or update an FF_RUMBLE effect.
+	 * @return The effect id, or -errno on failure.
+	 */
+	static native int ioctlEVIOCSFF(int handle, int id, int strong, int weak, int lengthMs);
+	/**
+	 * @return 0, or -errno on failure.
+	 */
+	static native int ioctlEVIOCRMFF(int handle, int id);
 }
 
 class InputAxisParametersImpl implements InputAxisParameters {
@@ -402,19 +1143,29 @@ class InputAxisParametersImpl implements InputAxisParameters {
 	private int axis;
 
 	private int value, min, max, fuzz, flat;
+	
+	/**
+	 * Reused by every readStatus() call.
+	 */
+	private int[] resp = new int[6];
 
 	public InputAxisParametersImpl(EventDevice device, int axis) {
 		this.device = device;
 		this.axis = axis;
-		readStatus();
+		/* Start from the snapshot taken when the device was opened rather than asking again */
+		device.getProbedAbsInfo(axis, resp);
+		copyStatus();
 	}
 
 	/**
 	 * Repopulate values stored in this class with values read from the device.
+	 * While the device can't be asked (e.g. it is disconnected), the last values read are kept.
 	 */
 	private void readStatus() {
-		int[] resp = new int[5];
-		device.ioctlEVIOCGABS(device.device, resp, axis);
+		if(device.readAbsInfo(axis, resp)) copyStatus();
+	}
+	
+	private void copyStatus() {
 		value = resp[0];
 		min = resp[1];
 		max = resp[2];
@@ -0,0 +1,228 @@
+package com.dgis.input.evdev;
+
+import java.util.Arrays;
+
+/*
+ * This file is part of evdev-java.
+ *  evdev-java is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  evdev-java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with evdev-java.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Services any number of EventDevices from a single thread.
+ * Waits on all of their handles at once with epoll, and lets each ready device read and
+ * distribute its pending events to its own listeners.
+ * Pass a reactor to the EventDevice constructor instead of letting each device start its own reader thread.
+ * @see com.dgis.input.evdev.EventDevice#EventDevice(String, EventDeviceReactor)
+ */
+
+public class EventDeviceReactor {
+
+	/**
+	 * Native epoll instance watching every registered device.
+	 */
+	private final int epollHandle;
+
+	/**
+	 * Native eventfd, also watched by epoll, signalled by close() to wake the reactor thread at once.
+	 */
+	private final int wakeHandle;
+
+	/**
+	 * Registered devices, indexed by handle. Replaced, never modified, so the reactor thread can read it without locking.
+	 */
+	private volatile EventDevice[] devicesByHandle = new EventDevice[0];
+
+	/**
+	 * Registered devices that lost their device and are waiting to reconnect. Replaced like devicesByHandle.
+	 */
+	private volatile EventDevice[] disconnectedDevices = new EventDevice[0];
+
+	/**
+	 * Filled with the handles reported ready by each epollWait().
+	 */
+	private final int[] readyHandles = new int[EventDevice.EVENTS_PER_READ];
+
+	/**
+	 * When this is true, the reactor thread should terminate ASAP.
+	 */
+	private volatile boolean terminate = false;
+
+	/**
+	 * This thread repeatedly waits for and dispatches input.
+	 */
+	private Thread reactorThread;
+
+	/**
+	 * Priority and CPU affinity of reactorThread.
+	 */
+	private final ThreadScheduling scheduling = new ThreadScheduling();
+
+	/**
+	 * Create a reactor and start its thread.
+	 * @throws IllegalStateException If the epoll instance could not be created.
+	 */
+	public EventDeviceReactor() {
+		System.loadLibrary("evdev-java");
+		epollHandle = epollCreate();
+		if(epollHandle < 0) throw new IllegalStateException("Couldn't create epoll instance (errno "+(-epollHandle)+")");
+		wakeHandle = EventDevice.createWakeHandle();
+		if(wakeHandle < 0) {
+			EventDevice.closeHandle(epollHandle);
+			throw new IllegalStateException("Couldn't create wakeup eventfd (errno "+(-wakeHandle)+")");
+		}
+		epollAdd(epollHandle, wakeHandle);
+
+		reactorThread = new Thread("EventDeviceReactor") {
+			@Override
+			public void run() {
+				scheduling.threadStarted();
+				while(!terminate) {
+					dispatchReady();
+				}
+			}
+		};
+		reactorThread.setDaemon(true); /* We don't want this thread to prevent the JVM from terminating */
+
+		reactorThread.start();
+	}
+
+	/**
+	 * Wait for input on any registered device, then let each ready device read it.
+	 * While any device is disconnected, also wakes up when its next reconnection attempt is due.
+	 * Returns without dispatching anything once close() has signalled wakeHandle.
+	 */
+	private void dispatchReady() {
+		EventDevice[] waiting = disconnectedDevices;
+		int timeout = -1;
+		for(EventDevice dev : waiting) {
+			int millis = dev.millisUntilReconnect();
+			if(timeout < 0 || millis < timeout) timeout = millis;
+		}
+		int count = epollWait(epollHandle, readyHandles, timeout);
+		if(terminate) return;
+		EventDevice[] devices = devicesByHandle;
+		for(int i = 0; i < count; i++) {
+			int handle = readyHandles[i];
+			EventDevice dev = handle < devices.length ? devices[handle] : null;
+			if(dev != null) {
+				dev.pollAvailable();
+			}
+		}
+		/* Attempts to reopen each lost device whose backoff delay has passed */
+		for(EventDevice dev : waiting) {
+			dev.pollAvailable();
+		}
+	}
+
+	/**
+	 * Start watching a device's handle. Called by EventDevice once its handle is open, or reopened.
+	 */
+	synchronized void register(EventDevice dev) {
+		disconnectedDevices = without(disconnectedDevices, dev);
+		int handle = dev.getHandle();
+		EventDevice[] devices = devicesByHandle;
+		if(handle >= devices.length) devices = Arrays.copyOf(devices, handle + 1);
+		else devices = devices.clone();
+		devices[handle] = dev;
+		devicesByHandle = devices;
+		epollAdd(epollHandle, handle);
+	}
+
+	/**
+	 * Stop watching a device entirely. If it is connected, its handle must still be open.
+	 */
+	synchronized void unregister(EventDevice dev) {
+		disconnectedDevices = without(disconnectedDevices, dev);
+		int handle = dev.getHandle();
+		EventDevice[] devices = devicesByHandle;
+		if(handle < 0 || handle >= devices.length || devices[handle] != dev) return;
+		epollRemove(epollHandle, handle);
+		devices = devices.clone();
+		devices[handle] = null;
+		devicesByHandle = devices;
+	}
+
+	/**
+	 * Stop watching a lost device's handle, which must still be open, and start giving it chances to reconnect.
+	 */
+	synchronized void deviceDisconnected(EventDevice dev) {
+		unregister(dev);
+		EventDevice[] waiting = disconnectedDevices;
+		EventDevice[] updated = Arrays.copyOf(waiting, waiting.length + 1);
+		updated[waiting.length] = dev;
+		disconnectedDevices = updated;
+	}
+
+	private static EventDevice[] without(EventDevice[] devices, EventDevice dev) {
+		for(int i = 0; i < devices.length; i++) {
+			if(devices[i] == dev) {
+				EventDevice[] updated = new EventDevice[devices.length - 1];
+				System.arraycopy(devices, 0, updated, 0, i);
+				System.arraycopy(devices, i + 1, updated, i, devices.length - i - 1);
+				return updated;
+			}
+		}
+		return devices;
+	}
+
+	/**
+	 * Run the reactor thread under the SCHED_FIFO real-time policy, so it preempts normal threads
+	 * as soon as input arrives. Requires CAP_SYS_NICE or a suitable RLIMIT_RTPRIO.
+	 * @param priority 1 (lowest) to 99 (highest), or 0 to return to normal scheduling.
+	 * @return false if the kernel refused the change.
+	 */
+	public boolean setPriority(int priority) {
+		return scheduling.setPriority(priority);
+	}
+
+	/**
+	 * Restrict the reactor thread to the given CPUs.
+	 * @param cpuMask Bit n set allows the thread to run on CPU n.
+	 * @return false if the kernel refused the change.
+	 */
+	public boolean setAffinity(long cpuMask) {
+		return scheduling.setAffinity(cpuMask);
+	}
+
+	/**
+	 * Stop the reactor thread and release the epoll instance. Registered devices will receive no more events,
+	 * but still need to be closed.
+	 */
+	public void close() {
+		if(terminate) return;
+		terminate = true;
+		EventDevice.signalWakeHandle(wakeHandle);
+		try {
+			reactorThread.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		EventDevice.closeHandle(epollHandle);
+		EventDevice.closeHandle(wakeHandle);
+	}
+
+	////BEGIN JNI METHODS////
+	/**
+	 * @return A new epoll instance, or -errno on failure.
+	 */
+	static native int epollCreate();
+	static native boolean epollAdd(int epollHandle, int handle);
+	static native boolean epollRemove(int epollHandle, int handle);
+	/**
+	 * Wait until at least one watched handle is readable, or the timeout (-1 for none) expires.
+	 * @param ready Filled with the ready handles.
+	 * @return The number of ready handles placed in ready.
+	 */
+	static native int epollWait(int epollHandle, int[] ready, int timeoutMillis);
+}
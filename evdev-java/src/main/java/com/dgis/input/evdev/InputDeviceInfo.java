@@ -0,0 +1,127 @@
+package com.dgis.input.evdev;
+
+/*
+ * This file is part of evdev-java.
+ *  evdev-java is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  evdev-java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with evdev-java.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Identity of an evdev device node: where it is, and what is plugged in there.
+ * Cheap to obtain without opening an EventDevice, so whole directories of nodes can be indexed.
+ * @see com.dgis.input.evdev.DeviceWatcher
+ */
+
+public class InputDeviceInfo {
+
+	private final String path;
+	private final short busID, vendorID, productID, versionID;
+	private final String name, phys, uniq;
+
+	InputDeviceInfo(String path, short busID, short vendorID, short productID, short versionID,
+			String name, String phys, String uniq) {
+		this.path = path;
+		this.busID = busID;
+		this.vendorID = vendorID;
+		this.productID = productID;
+		this.versionID = versionID;
+		this.name = name;
+		this.phys = phys;
+		this.uniq = uniq;
+	}
+
+	/**
+	 * Describe the device an EventDevice is attached to.
+	 */
+	public static InputDeviceInfo describe(EventDevice dev) {
+		return new InputDeviceInfo(dev.getDevicePath(), dev.getBusID(), dev.getVendorID(),
+				dev.getProductID(), dev.getVersionID(), dev.getDeviceName(), dev.getPhys(), dev.getUniq());
+	}
+
+	/**
+	 * Read the ID, name, phys and uniq of a device node with four cheap ioctls.
+	 * @param path The path to the device file. Usually one of /dev/input/event*
+	 * @return The device's identity, or null if it couldn't be opened or isn't an evdev device.
+	 */
+	static InputDeviceInfo probe(String path) {
+		int handle = EventDevice.openHandle(path, true, false);
+		if(handle < 0) return null;
+		try {
+			short[] id = new short[4];
+			byte[] devName = new byte[255];
+			if(!EventDevice.ioctlGetID(handle, id) || !EventDevice.ioctlGetDeviceName(handle, devName)) return null;
+			String name = EventDevice.parseName(devName);
+			return new InputDeviceInfo(path, id[InputEvent.ID_BUS], id[InputEvent.ID_VENDOR], id[InputEvent.ID_PRODUCT],
+					id[InputEvent.ID_VERSION], name.isEmpty() ? EventDevice.UNKNOWN_NAME : name,
+					EventDevice.readString(handle, false), EventDevice.readString(handle, true));
+		} finally {
+			EventDevice.closeHandle(handle);
+		}
+	}
+
+	/**
+	 * @return true if other describes the same kind of device (same IDs and name), wherever it is plugged in.
+	 * phys is ignored, since it changes with the port.
+	 */
+	public boolean isSameDevice(InputDeviceInfo other) {
+		return busID == other.busID && vendorID == other.vendorID && productID == other.productID
+				&& versionID == other.versionID && name.equals(other.name);
+	}
+
+	/**
+	 * @return The path to the device file.
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	public short getBusID() {
+		return busID;
+	}
+
+	public short getVendorID() {
+		return vendorID;
+	}
+
+	public short getProductID() {
+		return productID;
+	}
+
+	public short getVersionID() {
+		return versionID;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return Where the device is plugged in (e.g. usb-0000:00:14.0-2/input0), or "" if unknown.
+	 */
+	public String getPhys() {
+		return phys;
+	}
+
+	/**
+	 * @return The device's unique identifier (often a serial number), or "" if it has none.
+	 */
+	public String getUniq() {
+		return uniq;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: bus 0x%x vendor 0x%04x product 0x%04x version 0x%x \"%s\"",
+				path, busID, vendorID & 0xFFFF, productID & 0xFFFF, versionID, name);
+	}
+}
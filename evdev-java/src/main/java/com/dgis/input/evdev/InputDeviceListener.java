@@ -0,0 +1,36 @@
+package com.dgis.input.evdev;
+
+/*
+ * This file is part of evdev-java.
+ *  evdev-java is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  evdev-java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with evdev-java.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Listener for evdev device nodes appearing and disappearing.
+ * Called from the DeviceWatcher thread.
+ * @see com.dgis.input.evdev.DeviceWatcher
+ */
+
+public interface InputDeviceListener {
+	/**
+	 * A device node appeared and can be opened.
+	 * @param info The new device's identity.
+	 */
+	public void deviceAdded(InputDeviceInfo info);
+	/**
+	 * A device node was removed.
+	 * @param info The removed device's identity, as it was when added.
+	 */
+	public void deviceRemoved(InputDeviceInfo info);
+}
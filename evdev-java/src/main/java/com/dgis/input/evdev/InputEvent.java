@@ -1,6 +1,7 @@
 package com.dgis.input.evdev;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.ShortBuffer;
 
 /*
@@ -60,6 +61,7 @@ public class InputEvent {
 	public static final short SYN_REPORT = 0;
 	public static final short SYN_CONFIG = 1;
 	public static final short SYN_MT_REPORT = 2;
+	public static final short SYN_DROPPED = 3;
 
 	/*
 	 * Keys and buttons
@@ -787,6 +789,26 @@ public class InputEvent {
 	public static final short FF_STATUS_PLAYING = 0x01;
 	public static final short FF_STATUS_MAX = 0x01;
 
+	/*
+	 * Force feedback effect types
+	 */
+	public static final short FF_RUMBLE = 0x50;
+	public static final short FF_PERIODIC = 0x51;
+	public static final short FF_CONSTANT = 0x52;
+	public static final short FF_SPRING = 0x53;
+	public static final short FF_FRICTION = 0x54;
+	public static final short FF_DAMPER = 0x55;
+	public static final short FF_INERTIA = 0x56;
+	public static final short FF_RAMP = 0x57;
+
+	/*
+	 * Force feedback device properties
+	 */
+	public static final short FF_GAIN = 0x60;
+	public static final short FF_AUTOCENTER = 0x61;
+	public static final short FF_MAX = 0x7f;
+	public static final short FF_CNT = (FF_MAX + 1);
+
 	
 	public long time_sec;
 	public long time_usec;
@@ -823,7 +845,60 @@ public class InputEvent {
 		return e;
 	}
 	
-	private InputEvent() {}
+	/**
+	 * Decode the input_event struct starting at offset into this event, replacing its previous contents.
+	 * Absolute gets are used, so the buffer's position is left untouched and nothing is allocated.
+	 * The buffer must be in little-endian order.
+	 * @param buffer Buffer holding raw input_event structs.
+	 * @param offset Byte offset of the struct to decode.
+	 */
+	void decode(ByteBuffer buffer, int offset) {
+		time_sec = buffer.getInt(offset) & 0xFFFFFFFFL;
+		time_usec = buffer.getInt(offset + 4) & 0xFFFFFFFFL;
+		type = buffer.getShort(offset + 8);
+		code = buffer.getShort(offset + 10);
+		value = buffer.getInt(offset + 12);
+	}
+	
+	/**
+	 * Encode an input_event struct at offset, to be written to a device. The time is left zero; the kernel ignores it.
+	 * The buffer must be in little-endian order.
+	 */
+	static void encode(ByteBuffer buffer, int offset, int type, int code, int value) {
+		buffer.putInt(offset, 0);
+		buffer.putInt(offset + 4, 0);
+		buffer.putShort(offset + 8, (short) type);
+		buffer.putShort(offset + 10, (short) code);
+		buffer.putInt(offset + 12, value);
+	}
+	
+	/**
+	 * EventDevice reuses a single InputEvent for every event it distributes, so listeners
+	 * that hold on to an event past their event() call must keep a copy instead.
+	 * @return A new InputEvent with the same contents as this one.
+	 */
+	public InputEvent copy() {
+		InputEvent e = new InputEvent(source);
+		e.time_sec = time_sec;
+		e.time_usec = time_usec;
+		e.type = type;
+		e.code = code;
+		e.value = value;
+		return e;
+	}
+	
+	/**
+	 * Create an empty event, e.g. as a reusable destination for InputEventRing.poll().
+	 */
+	public InputEvent() {}
+	
+	/**
+	 * Create an empty event to be filled in by decode().
+	 * @param source The device this event will come from.
+	 */
+	InputEvent(String source) {
+		this.source = source;
+	}
 	
 	@Override
 	public String toString() {
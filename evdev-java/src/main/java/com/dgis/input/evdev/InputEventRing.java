@@ -0,0 +1,186 @@
+package com.dgis.input.evdev;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * This file is part of evdev-java.
+ *  evdev-java is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  evdev-java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with evdev-java.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Lock-free single-producer/single-consumer queue of input events.
+ * Register it as a listener on one EventDevice; the device's reader fills it, and exactly one other
+ * thread (typically the robot loop) drains it with poll() or pollFrame(). Every event is kept, in order,
+ * until the ring is full; events arriving while it is full are dropped and counted, and a SYN_DROPPED
+ * is queued in their place once there is room, just as the kernel does when its own buffer overflows.
+ * Events are stored as primitives, so neither side allocates.
+ * The source field of events handed out by poll() and pollFrame() is left untouched.
+ */
+
+public class InputEventRing implements InputListener {
+
+	/**
+	 * Two longs per event: type, code and value packed together, then the timestamp in microseconds.
+	 */
+	private final long[] slots;
+
+	/**
+	 * Capacity - 1. The capacity is a power of two, so this maps a sequence number to its slot.
+	 */
+	private final int mask;
+
+	/**
+	 * Sequence number of the next event to be written. Only the producer advances it.
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * Sequence number of the next event to be read. Only the consumer advances it.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Events thrown away because the ring was full.
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+	
+	/**
+	 * Set while events are being dropped, until the SYN_DROPPED marking the gap is queued. Only used by the producer.
+	 */
+	private boolean overflowed = false;
+
+	/**
+	 * Create a ring able to hold at least capacity events.
+	 * @param capacity Minimum number of events held. Rounded up to a power of two.
+	 */
+	public InputEventRing(int capacity) {
+		if(capacity < 1 || capacity > (1 << 29)) throw new IllegalArgumentException("Bad ring capacity: "+capacity);
+		int size = Integer.highestOneBit(capacity);
+		if(size < capacity) size <<= 1;
+		mask = size - 1;
+		slots = new long[size * 2];
+	}
+
+	/**
+	 * Append an event. Called by the EventDevice reader; must only ever be called from one thread.
+	 */
+	@Override
+	public void event(InputEvent e) {
+		if(e == null) return;
+		long h = head.get();
+		long free = mask + 1 - (h - tail.get());
+		long micros = e.time_sec * 1000000L + e.time_usec;
+		if(overflowed) {
+			/* Room is needed for the marker as well as the event */
+			if(free < 2) {
+				dropped.incrementAndGet();
+				return;
+			}
+			store(h++, InputEvent.EV_SYN, InputEvent.SYN_DROPPED, 0, micros);
+			overflowed = false;
+		} else if(free < 1) {
+			overflowed = true;
+			dropped.incrementAndGet();
+			return;
+		}
+		store(h, e.type, e.code, e.value, micros);
+		head.lazySet(h + 1); /* Publishes the slots to the consumer */
+	}
+	
+	private void store(long seq, short type, short code, int value, long micros) {
+		int slot = ((int) seq & mask) * 2;
+		slots[slot] = ((long) (type & 0xFFFF) << 48) | ((long) (code & 0xFFFF) << 32) | (value & 0xFFFFFFFFL);
+		slots[slot + 1] = micros;
+	}
+
+	/**
+	 * Remove the oldest event from the ring.
+	 * @param into Receives the event's time, type, code and value.
+	 * @return false if the ring was empty, in which case into is unchanged.
+	 */
+	public boolean poll(InputEvent into) {
+		long t = tail.get();
+		if(t == head.get()) return false;
+		unpack(t, into);
+		tail.lazySet(t + 1); /* Hands the slot back to the producer */
+		return true;
+	}
+
+	/**
+	 * Remove the oldest complete frame from the ring: every event up to and including the next SYN_REPORT,
+	 * or SYN_DROPPED where events were lost. As with the kernel's SYN_DROPPED, the events after it up to
+	 * the next SYN_REPORT are what was left of a torn frame.
+	 * Nothing is removed if neither has arrived yet, unless the ring is full: a frame too big for the ring
+	 * is thrown away, and the listener is handed a SYN_DROPPED instead.
+	 * @param listener Called with each event of the frame, in order.
+	 * @param scratch Reused to hand each event to listener.
+	 * @return The number of events delivered.
+	 */
+	public int pollFrame(InputListener listener, InputEvent scratch) {
+		long t = tail.get();
+		long h = head.get();
+		long end = t;
+		while(end < h && !isFrameEnd(slots[((int) end & mask) * 2])) end++;
+		if(end == h) {
+			if(h - t <= mask) return 0;
+			/* Full without a frame end, so none will ever fit: discard, or the ring stays stuck */
+			unpack(h - 1, scratch);
+			scratch.type = InputEvent.EV_SYN;
+			scratch.code = InputEvent.SYN_DROPPED;
+			scratch.value = 0;
+			dropped.addAndGet(h - t);
+			tail.lazySet(h);
+			listener.event(scratch);
+			return 1;
+		}
+		for(long seq = t; seq <= end; seq++) {
+			unpack(seq, scratch);
+			listener.event(scratch);
+		}
+		tail.lazySet(end + 1);
+		return (int) (end + 1 - t);
+	}
+
+	/**
+	 * @return The number of events waiting to be polled.
+	 */
+	public int size() {
+		return (int) (head.get() - tail.get());
+	}
+
+	/**
+	 * @return The number of events dropped so far because the ring was full, or discarded by pollFrame()
+	 * as part of a frame too big for it.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	private void unpack(long seq, InputEvent into) {
+		int slot = ((int) seq & mask) * 2;
+		long packed = slots[slot];
+		long micros = slots[slot + 1];
+		into.type = (short) (packed >>> 48);
+		into.code = (short) (packed >>> 32);
+		into.value = (int) packed;
+		into.time_sec = micros / 1000000L;
+		into.time_usec = micros % 1000000L;
+	}
+
+	private static boolean isFrameEnd(long packed) {
+		if((short) (packed >>> 48) != InputEvent.EV_SYN) return false;
+		short code = (short) (packed >>> 32);
+		return code == InputEvent.SYN_REPORT || code == InputEvent.SYN_DROPPED;
+	}
+}
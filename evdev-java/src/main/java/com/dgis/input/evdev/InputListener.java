@@ -28,6 +28,8 @@ public interface InputListener {
 	/**
 	 * This method is called by a EventDevice when an event is reported by
 	 * the event device under its watch. 
+	 * The event object is reused for the next event once this method returns;
+	 * use InputEvent.copy() to keep it.
 	 * @param e The event details.
 	 */
 	public void event(InputEvent e);
@@ -0,0 +1,89 @@
+package com.dgis.input.evdev;
+
+/*
+ * This file is part of evdev-java.
+ *  evdev-java is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  evdev-java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with evdev-java.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Real-time priority and CPU affinity of one input thread (an EventDevice reader or a reactor).
+ * Settings made before the thread has started are remembered and applied by the thread itself once it runs.
+ */
+
+class ThreadScheduling {
+
+	/**
+	 * Linux thread ID of the scheduled thread, or 0 until it has started.
+	 */
+	private int threadId = 0;
+
+	/**
+	 * Requested SCHED_FIFO priority, 0 for normal scheduling, or -1 if never set.
+	 */
+	private int priority = -1;
+
+	/**
+	 * Requested CPU mask, or 0 if never set.
+	 */
+	private long cpuMask = 0;
+
+	/**
+	 * Must be called on the scheduled thread as soon as it starts. Applies any pending settings.
+	 */
+	synchronized void threadStarted() {
+		threadId = getThreadId();
+		if(priority >= 0) applyPriority();
+		if(cpuMask != 0) applyAffinity();
+	}
+
+	synchronized boolean setPriority(int priority) {
+		if(priority < 0 || priority > 99) throw new IllegalArgumentException("Bad priority: "+priority);
+		this.priority = priority;
+		return threadId == 0 || applyPriority();
+	}
+
+	synchronized boolean setAffinity(long cpuMask) {
+		if(cpuMask == 0) throw new IllegalArgumentException("CPU mask must name at least one CPU");
+		this.cpuMask = cpuMask;
+		return threadId == 0 || applyAffinity();
+	}
+
+	private boolean applyPriority() {
+		int result = setRealtimePriority(threadId, priority);
+		if(result < 0) System.err.println("WARN: couldn't set thread priority "+priority+" (errno "+(-result)+")");
+		return result == 0;
+	}
+
+	private boolean applyAffinity() {
+		int result = setCpuAffinity(threadId, cpuMask);
+		if(result < 0) System.err.println("WARN: couldn't set thread CPU mask 0x"+Long.toHexString(cpuMask)+" (errno "+(-result)+")");
+		return result == 0;
+	}
+
+	////BEGIN JNI METHODS////
+	/**
+	 * @return The Linux thread ID (not the Java one) of the calling thread.
+	 */
+	static native int getThreadId();
+	/**
+	 * @param priority 1-99 to run under SCHED_FIFO, or 0 for SCHED_OTHER.
+	 * @return 0, or -errno on failure.
+	 */
+	static native int setRealtimePriority(int threadId, int priority);
+	/**
+	 * @param cpuMask Bit n set allows the thread to run on CPU n.
+	 * @return 0, or -errno on failure.
+	 */
+	static native int setCpuAffinity(int threadId, long cpuMask);
+}
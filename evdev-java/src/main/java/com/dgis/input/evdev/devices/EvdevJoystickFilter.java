@@ -1,11 +1,10 @@
 package com.dgis.input.evdev.devices;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
 
+import com.dgis.input.evdev.DeviceCapabilities;
+import com.dgis.input.evdev.DeviceConnectionListener;
 import com.dgis.input.evdev.EventDevice;
 import com.dgis.input.evdev.InputEvent;
 import com.dgis.input.evdev.InputListener;
@@ -36,27 +35,45 @@ import com.dgis.input.evdev.InputListener;
  * @author Giacomo Ferrari
  */
 
-public class EvdevJoystickFilter implements InputListener {
+public class EvdevJoystickFilter implements InputListener, DeviceConnectionListener {
 	
 	private EventDevice device;
 	private JoystickState state;
 	
-	private ArrayList<JoystickListener> listeners = new ArrayList<JoystickListener>();
+	/**
+	 * Never modified in place: registration changes swap in a new array, so dispatching needs no lock.
+	 */
+	private volatile JoystickListener[] listeners = new JoystickListener[0];
+	
+	/**
+	 * Serializes registration changes to listeners.
+	 */
+	private final Object listenersLock = new Object();
 	
 	/**
-	 * Holds the event codes for each joystick button, in order. That is, if
-	 * event code 288 is button one, it is the first entry here.
+	 * Maps each event code to its joystick button, or -1. That is, if
+	 * event code 288 is button one, entry 288 here is 0.
 	 */
-	private ArrayList<Integer> buttonEventCodes = new ArrayList<Integer>();
+	private short[] buttonIndexes;
 	
 	/**
-	 * Holds the event codes for each joystick axis, in order. That is, if
-	 * event code 0 is axis one, it is the first entry here.
+	 * Maps each event code to its joystick axis, or -1. That is, if
+	 * event code 0 is axis one, entry 0 here is 0.
 	 */
-	private ArrayList<Integer> axisEventCodes = new ArrayList<Integer>();
+	private short[] axisIndexes;
+	
+	/**
+	 * The event code of each joystick button and axis, in increasing order.
+	 */
+	private int[] buttonCodes, axisCodes;
 	
 	private boolean[] buttonChanged, axisChanged;
 	
+	/**
+	 * Set by SYN_DROPPED: the kernel lost events, so the changes until the next SYN_REPORT are incomplete.
+	 */
+	private boolean dropFrame;
+	
 	/**
 	 * Constructs an EvdevJoystickFilter using the provided EventDevice as input.
 	 */
@@ -72,23 +89,24 @@ public class EvdevJoystickFilter implements InputListener {
 	}
 	
 	private void setupDevice() {
-		Map<Integer, List<Integer>> supportedEvents = device.getSupportedEvents();
-		List<Integer> supportedAxes = supportedEvents.get((int)InputEvent.EV_ABS);
-		List<Integer> supportedKeys = supportedEvents.get((int)InputEvent.EV_KEY);
+		DeviceCapabilities capabilities = device.getCapabilities();
+		buttonIndexes = capabilities.buildIndexTable(InputEvent.EV_KEY);
+		axisIndexes = capabilities.buildIndexTable(InputEvent.EV_ABS);
+		buttonCodes = capabilities.getCodes(InputEvent.EV_KEY);
+		axisCodes = capabilities.getCodes(InputEvent.EV_ABS);
 		
-		int numAxes = supportedAxes == null ? 0 : supportedAxes.size();
-		int numButtons = supportedKeys == null ? 0 : supportedKeys.size();
+		int numAxes = axisCodes.length;
+		int numButtons = buttonCodes.length;
 		
-		buttonEventCodes.addAll(supportedKeys);
-		axisEventCodes.addAll(supportedAxes);
-		
-		System.out.println("Detected "+buttonEventCodes.size()+" buttons and "+axisEventCodes.size()+" axes.");
+		System.out.println("Detected "+numButtons+" buttons and "+numAxes+" axes.");
 		
 		buttonChanged = new boolean[numButtons];
 		axisChanged = new boolean[numAxes];
 		
 		state = new JoystickState(numButtons, numAxes);
+		state.enableStaging();
 		device.addListener(this);
+		device.addConnectionListener(this);
 	}
 	
 	@Override
@@ -104,14 +122,29 @@ public class EvdevJoystickFilter implements InputListener {
 				handleAxis(e.code, e.value);
 				break;
 			case InputEvent.EV_SYN:
-				dispatchEvents();
+				if(e.code == InputEvent.SYN_REPORT) {
+					dispatchEvents();
+				} else if(e.code == InputEvent.SYN_DROPPED) {
+					dropFrame = true;
+				}
+				break;
 			default: /* Unknown to us, ignore */
 			}
 	}
 	/**
-	 * Broadcast events for what changed since the last dispatchEvents().
+	 * Publish what changed since the last dispatchEvents() to the state, then broadcast events for it.
 	 */
 	private void dispatchEvents() {
+		if(dropFrame) {
+			/* The frame is torn: throw it away, and read what the lost events would have said */
+			dropFrame = false;
+			state.discard();
+			Arrays.fill(axisChanged, false);
+			Arrays.fill(buttonChanged, false);
+			resync();
+		}
+		state.commit();
+		
 		boolean anyAxisChanged = false;
 		boolean anyButtonChanged = false;
 		for(boolean x:buttonChanged) anyButtonChanged |=x;
@@ -127,24 +160,58 @@ public class EvdevJoystickFilter implements InputListener {
 		Arrays.fill(axisChanged, false);
 		Arrays.fill(buttonChanged, false);
 	}
+	/**
+	 * Stage the device's current button and axis states, asked of the kernel, as if they had just been reported.
+	 * Anything that couldn't be read is left as it was.
+	 */
+	private void resync() {
+		long[] keys = new long[EventDevice.BITMAP_LONGS];
+		if(device.readKeyStates(keys)) {
+			for(int i = 0; i < buttonCodes.length; i++) {
+				int code = buttonCodes[i];
+				handleButton((short) code, (keys[code / 64] >>> (code % 64) & 1) != 0);
+			}
+		}
+		int[] absInfo = new int[EventDevice.ABSINFO_INTS];
+		for(int i = 0; i < axisCodes.length; i++) {
+			if(device.readAbsInfo(axisCodes[i], absInfo)) handleAxis((short) axisCodes[i], absInfo[0]);
+		}
+	}
+	
+	@Override
+	public void deviceDisconnected(EventDevice dev) {
+		/* Nothing arrives until it is back; deviceReconnected() catches up then */
+	}
+	
+	@Override
+	public void deviceReconnected(EventDevice dev) {
+		/* Whatever changed while it was away was never reported */
+		dropFrame = false;
+		state.discard();
+		Arrays.fill(axisChanged, false);
+		Arrays.fill(buttonChanged, false);
+		resync();
+		dispatchEvents();
+	}
+	
 	private void handleAxis(short axisNumber, int value) {
-		int axisNumber2 = axisEventCodes.indexOf((int)axisNumber);
+		int axisNumber2 = DeviceCapabilities.lookup(axisIndexes, axisNumber);
 		if(axisNumber2 <0) {
 			System.err.println("WARN: Couldn't find axis "+axisNumber+" in mapping! Perhaps device reported capabilities improperly!");
 			return;
 		}
-		axisChanged[axisNumber2] = (value != state.getAxisState(axisNumber2)); //only flag as changed if _actually_ changed.
+		axisChanged[axisNumber2] = (value != state.getAxisState(axisNumber2)); //only flag as changed if _actually_ changed since the last commit.
 		state.setAxisState(axisNumber2, value);
 		
 	}
 	
 	private void handleButton(short buttonNumber, boolean buttonState) {
-		int buttonNumber2 = buttonEventCodes.indexOf((int)buttonNumber);
+		int buttonNumber2 = DeviceCapabilities.lookup(buttonIndexes, buttonNumber);
 		if(buttonNumber2 <0) {
 			System.err.println("WARN: Couldn't find button "+buttonNumber+" in mapping! Perhaps device reported capabilities improperly!");
 			return;
 		}
-		buttonChanged[buttonNumber2] = (buttonState != state.getButtonState(buttonNumber2)); //only flag as changed if _actually_ changed.
+		buttonChanged[buttonNumber2] = (buttonState != state.getButtonState(buttonNumber2)); //only flag as changed if _actually_ changed since the last commit.
 		state.setButtonState(buttonNumber2, buttonState);
 	}
 	
@@ -155,7 +222,15 @@ public class EvdevJoystickFilter implements InputListener {
 	 * @param list The listener to add. Must not be null.
 	 */
 	public void addListener(JoystickListener list) {
-		listeners.add(list);
+		synchronized (listenersLock) {
+			JoystickListener[] current = listeners;
+			for(JoystickListener l : current) {
+				if(l == list) return;
+			}
+			JoystickListener[] updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = list;
+			listeners = updated;
+		}
 	}
 	
 	/**
@@ -165,7 +240,18 @@ public class EvdevJoystickFilter implements InputListener {
 	 * @param list The listener to remove. Must not be null.
 	 */
 	public void removeListener(JoystickListener list) {
-		listeners.remove(list);
+		synchronized (listenersLock) {
+			JoystickListener[] current = listeners;
+			for(int i = 0; i < current.length; i++) {
+				if(current[i] == list) {
+					JoystickListener[] updated = new JoystickListener[current.length - 1];
+					System.arraycopy(current, 0, updated, 0, i);
+					System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+					listeners = updated;
+					return;
+				}
+			}
+		}
 	}
 	
 	public void close() {
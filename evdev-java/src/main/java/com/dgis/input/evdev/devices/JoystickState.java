@@ -1,5 +1,7 @@
 package com.dgis.input.evdev.devices;
 
+import java.lang.invoke.VarHandle;
+
 /*
  * Copyright (C) 2009 Giacomo Ferrari
  * This file is part of evdev-java.
@@ -19,6 +21,7 @@ package com.dgis.input.evdev.devices;
 
 /**
  * Represents the state of a joystick (buttons and axes)
+ * Changes are published a whole set at a time, so readers on any thread see a consistent state.
  *
  * Copyright (C) 2009 Giacomo Ferrari
  * @author Giacomo Ferrari
@@ -32,12 +35,40 @@ public class JoystickState {
 	private int axisMinValue[];
 	private int axisMaxValue[];
 	
+	/**
+	 * Changes made since the last commit(), by the thread delivering events only.
+	 * Null in snapshots, which are never changed that way.
+	 */
+	private boolean stagedButtonStates[];
+	private int stagedAxisStates[];
+	private int stagedAxisMinValue[];
+	private int stagedAxisMaxValue[];
+	
+	/**
+	 * Sequence lock over the published arrays: odd while commit() is copying changes in.
+	 * Readers retry if it was odd or changed while they read, so they never block or see half a commit.
+	 * Also counts commits: version() is seq / 2.
+	 */
+	private volatile int seq;
+	
 	JoystickState(int numButtons, int numAxes) {
+		this.numButtons = numButtons;
+		this.numAxes = numAxes;
 		buttonStates = new boolean[numButtons];
 		axisStates = new int[numAxes];
 		axisMinValue = new int[numAxes];
 		axisMaxValue = new int[numAxes];
 	}
+	
+	/**
+	 * Allocate the arrays changes are staged in before commit().
+	 */
+	void enableStaging() {
+		stagedButtonStates = new boolean[numButtons];
+		stagedAxisStates = new int[numAxes];
+		stagedAxisMinValue = new int[numAxes];
+		stagedAxisMaxValue = new int[numAxes];
+	}
 
 	/**
 	 * Gets the number of buttons reported by this joystick.
@@ -61,7 +92,14 @@ public class JoystickState {
 	 * @return The state of the button.
 	 */
 	public boolean getButtonState(int button) {
-		return buttonStates[button];
+		int s;
+		boolean value;
+		do {
+			s = seq;
+			value = buttonStates[button];
+			VarHandle.loadLoadFence();
+		} while((s & 1) != 0 || s != seq);
+		return value;
 	}
 
 	/**
@@ -72,7 +110,7 @@ public class JoystickState {
 	 * @see JoystickState#getAxisMinValue(int)
 	 */
 	public int getAxisState(int axis) {
-		return axisStates[axis];
+		return readInt(axisStates, axis);
 	}
 
 	/**
@@ -81,7 +119,7 @@ public class JoystickState {
 	 * @return The smallest value ever seen on this axis.
 	 */
 	public int getAxisMinValue(int axis) {
-		return axisMinValue[axis];
+		return readInt(axisMinValue, axis);
 	}
 
 	/**
@@ -90,23 +128,95 @@ public class JoystickState {
 	 * @return The largest value ever seen on this axis.
 	 */
 	public int getAxisMaxValue(int axis) {
-		return axisMaxValue[axis];
+		return readInt(axisMaxValue, axis);
+	}
+	
+	private int readInt(int[] array, int index) {
+		int s, value;
+		do {
+			s = seq;
+			value = array[index];
+			VarHandle.loadLoadFence();
+		} while((s & 1) != 0 || s != seq);
+		return value;
+	}
+	
+	/**
+	 * @return The number of sets of changes committed so far. Unchanged means nothing changed,
+	 * so a consumer polling this state can skip its work.
+	 */
+	public int version() {
+		return seq >>> 1;
+	}
+	
+	/**
+	 * @return A new state of the same size, for use with snapshot().
+	 */
+	public JoystickState createSnapshot() {
+		JoystickState snapshot = new JoystickState(numButtons, numAxes);
+		snapshot(snapshot);
+		return snapshot;
+	}
+	
+	/**
+	 * Copy a consistent view of this state, all from the same set of changes, into a caller-owned state.
+	 * Never blocks and never allocates, so it can be called from a control loop.
+	 * @param into A state from createSnapshot(). Must not be shared with another thread while this runs.
+	 * @return The version() of the copied state.
+	 */
+	public int snapshot(JoystickState into) {
+		int s;
+		do {
+			s = seq;
+			System.arraycopy(buttonStates, 0, into.buttonStates, 0, numButtons);
+			System.arraycopy(axisStates, 0, into.axisStates, 0, numAxes);
+			System.arraycopy(axisMinValue, 0, into.axisMinValue, 0, numAxes);
+			System.arraycopy(axisMaxValue, 0, into.axisMaxValue, 0, numAxes);
+			VarHandle.loadLoadFence();
+		} while((s & 1) != 0 || s != seq);
+		into.seq = s;
+		return s >>> 1;
 	}
 
 	void setButtonState(int button, boolean state) {
-		buttonStates[button] = state;;
+		stagedButtonStates[button] = state;
 	}
 
 	void setAxisState(int axis, int state) {
-		axisStates[axis] = state;
+		stagedAxisStates[axis] = state;
 	}
 
 	void setAxisMinValue(int axis, int min) {
-		axisMinValue[axis] = min;
+		stagedAxisMinValue[axis] = min;
 	}
 
 	void setAxisMaxValue(int axis, int max) {
-		axisMaxValue[axis] = max;
+		stagedAxisMaxValue[axis] = max;
+	}
+	
+	/**
+	 * Publish every change staged since the last commit() at once.
+	 */
+	void commit() {
+		int s = seq;
+		seq = s + 1;
+		/* Keep the copies below from being reordered before the odd sequence number */
+		VarHandle.storeStoreFence();
+		System.arraycopy(stagedButtonStates, 0, buttonStates, 0, numButtons);
+		System.arraycopy(stagedAxisStates, 0, axisStates, 0, numAxes);
+		System.arraycopy(stagedAxisMinValue, 0, axisMinValue, 0, numAxes);
+		System.arraycopy(stagedAxisMaxValue, 0, axisMaxValue, 0, numAxes);
+		seq = s + 2;
+	}
+	
+	/**
+	 * Throw away every change staged since the last commit().
+	 */
+	void discard() {
+		System.arraycopy(buttonStates, 0, stagedButtonStates, 0, numButtons);
+		System.arraycopy(axisStates, 0, stagedAxisStates, 0, numAxes);
+		System.arraycopy(axisMinValue, 0, stagedAxisMinValue, 0, numAxes);
+		System.arraycopy(axisMaxValue, 0, stagedAxisMaxValue, 0, numAxes);
 	}
 	
 	@Override
@@ -0,0 +1,356 @@
+package com.dgis.input.evdev.devices;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import com.dgis.input.evdev.DeviceConnectionListener;
+import com.dgis.input.evdev.EventDevice;
+import com.dgis.input.evdev.InputEvent;
+
+/*
+ * This file is part of evdev-java.
+ *  evdev-java is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  evdev-java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with evdev-java.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Drives the rumble motors of a device supporting FF_RUMBLE force feedback.
+ * A single effect is uploaded and then updated in place, so changing the rumble costs one EVIOCSFF.
+ * The uploads and EV_FF writes happen on a writer thread: set(), pulse() and ramp() never block,
+ * and when the rumble changes faster than the device accepts it, only the latest setting is written.
+ */
+
+public class RumbleOutput implements DeviceConnectionListener {
+
+	/**
+	 * Interval between updates while ramping, in milliseconds.
+	 */
+	static final int RAMP_STEP_MS = 20;
+
+	/**
+	 * Value of request when no new setting is waiting.
+	 */
+	private static final long NO_REQUEST = -1;
+
+	private volatile EventDevice device;
+
+	/**
+	 * The latest setting not yet written, as packed magnitudes (unsigned), or NO_REQUEST.
+	 */
+	private final AtomicLong request = new AtomicLong(NO_REQUEST);
+
+	/**
+	 * The pulse or ramp being played, if any. Cleared by set() and by the writer thread once it ends.
+	 */
+	private final AtomicReference<Pattern> pattern = new AtomicReference<Pattern>();
+
+	private volatile boolean terminate = false;
+
+	/**
+	 * Set when the device reconnects: the effect went with the old handle, even though the EventDevice is the same.
+	 */
+	private volatile boolean reconnected = false;
+
+	private final Thread writerThread;
+
+	/*
+	 * The rest is only used by the writer thread (and by close(), once it has stopped).
+	 */
+
+	/**
+	 * The device effectId was uploaded to.
+	 */
+	private EventDevice effectDevice;
+
+	/**
+	 * Id of our uploaded effect, or -1 if there is none yet.
+	 */
+	private int effectId = -1;
+
+	private boolean playing = false;
+
+	/**
+	 * Packed magnitudes last written to the effect.
+	 */
+	private int current = 0;
+
+	/**
+	 * Packed magnitudes last asked of write(), whether or not the device took them. Written again on reconnect.
+	 */
+	private int wanted = 0;
+
+	/**
+	 * Set after a failure has been reported, so a device that rejects every update only warns once.
+	 */
+	private boolean warned = false;
+
+	/**
+	 * @param dev The device to rumble. It should support (EV_FF, FF_RUMBLE).
+	 */
+	public RumbleOutput(EventDevice dev) {
+		device = dev;
+		dev.addConnectionListener(this);
+		writerThread = new Thread("RumbleOutput "+dev.getDevicePath()) {
+			@Override
+			public void run() {
+				runWriter();
+			}
+		};
+		writerThread.setDaemon(true); /* We don't want this thread to prevent the JVM from terminating */
+		writerThread.start();
+	}
+
+	/**
+	 * Set both motors, cancelling any pulse or ramp.
+	 * @param strong Strong (low frequency, usually left) motor, 0 to 1.
+	 * @param weak Weak (high frequency, usually right) motor, 0 to 1.
+	 */
+	public void set(double strong, double weak) {
+		pattern.set(null);
+		request.set(pack(strong, weak) & 0xFFFFFFFFL);
+		LockSupport.unpark(writerThread);
+	}
+
+	/**
+	 * Stop both motors, cancelling any pulse or ramp.
+	 */
+	public void stop() {
+		set(0, 0);
+	}
+
+	/**
+	 * Pulse the motors on and off, replacing any setting, pulse or ramp. They are left off afterwards.
+	 * @param strong Strong motor while on, 0 to 1.
+	 * @param weak Weak motor while on, 0 to 1.
+	 * @param onMs How long each pulse lasts, in milliseconds.
+	 * @param offMs The gap between pulses, in milliseconds.
+	 * @param count Number of pulses, or 0 to pulse until something else is set.
+	 */
+	public void pulse(double strong, double weak, int onMs, int offMs, int count) {
+		if(onMs <= 0 || offMs < 0) throw new IllegalArgumentException("Bad pulse timing: "+onMs+"/"+offMs+" ms");
+		startPattern(new Pulse(pack(strong, weak), onMs, offMs, count));
+	}
+
+	/**
+	 * Ramp the motors linearly from one setting to another, replacing any setting, pulse or ramp.
+	 * They are left at the final setting.
+	 * @param durationMs How long the ramp lasts, in milliseconds.
+	 */
+	public void ramp(double fromStrong, double fromWeak, double toStrong, double toWeak, int durationMs) {
+		if(durationMs <= 0) throw new IllegalArgumentException("Bad ramp duration: "+durationMs+" ms");
+		startPattern(new Ramp(pack(fromStrong, fromWeak), pack(toStrong, toWeak), durationMs));
+	}
+
+	private void startPattern(Pattern p) {
+		request.set(NO_REQUEST);
+		pattern.set(p);
+		LockSupport.unpark(writerThread);
+	}
+
+	/**
+	 * Move the rumble over to another device, e.g. one that replaced ours after being unplugged.
+	 * The current setting is written to it.
+	 */
+	public void setDevice(EventDevice dev) {
+		EventDevice old = device;
+		if(old == dev) return;
+		old.removeConnectionListener(this);
+		dev.addConnectionListener(this);
+		device = dev;
+		LockSupport.unpark(writerThread);
+	}
+
+	@Override
+	public void deviceDisconnected(EventDevice dev) {
+		/* Writes fail until it comes back; deviceReconnected() catches up */
+	}
+
+	@Override
+	public void deviceReconnected(EventDevice dev) {
+		reconnected = true;
+		LockSupport.unpark(writerThread);
+	}
+
+	/**
+	 * Stop the motors and the writer thread, and remove the effect from the device.
+	 */
+	public void close() {
+		if(terminate) return;
+		terminate = true;
+		device.removeConnectionListener(this);
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		if(effectId >= 0 && effectDevice == device) {
+			effectDevice.removeEffect(effectId);
+		}
+		effectId = -1;
+	}
+
+	private void runWriter() {
+		while(!terminate) {
+			if(device != effectDevice || reconnected) {
+				/* Effect ids belong to the handle they were uploaded to */
+				reconnected = false;
+				effectDevice = device;
+				effectId = -1;
+				playing = false;
+				current = 0;
+				if(wanted != 0) write(wanted);
+			}
+			long req = request.getAndSet(NO_REQUEST);
+			if(req != NO_REQUEST) write((int) req);
+
+			Pattern p = pattern.get();
+			if(p == null) {
+				if(request.get() == NO_REQUEST) LockSupport.park(this);
+				continue;
+			}
+			long elapsedMs = (System.nanoTime() - p.startNanos) / 1000000L;
+			write(p.magnitudesAt(elapsedMs));
+			long nextMs = p.nextChangeMs(elapsedMs);
+			if(nextMs < 0) {
+				pattern.compareAndSet(p, null);
+			} else {
+				LockSupport.parkNanos(this, p.startNanos + nextMs * 1000000L - System.nanoTime());
+			}
+		}
+		if(playing) effectDevice.writeEvent(InputEvent.EV_FF, effectId, 0);
+		playing = false;
+	}
+
+	/**
+	 * Bring the effect to the given magnitudes: update it in place, start it if it was stopped, or stop it
+	 * for zero. If the cached id is no longer valid (the device reconnected), the effect is uploaded again.
+	 */
+	private void write(int magnitudes) {
+		EventDevice dev = effectDevice;
+		if(dev == null) return;
+		wanted = magnitudes;
+		if(magnitudes == 0) {
+			if(playing) dev.writeEvent(InputEvent.EV_FF, effectId, 0);
+			playing = false;
+			current = 0;
+			return;
+		}
+		if(magnitudes == current && playing) return;
+		int strong = magnitudes >>> 16, weak = magnitudes & 0xFFFF;
+		int id = dev.uploadRumbleEffect(effectId, strong, weak, 0);
+		if(id < 0 && effectId >= 0) {
+			effectId = -1;
+			playing = false;
+			id = dev.uploadRumbleEffect(-1, strong, weak, 0);
+		}
+		if(id >= 0 && id != effectId) {
+			effectId = id;
+			playing = false;
+		}
+		int result = id < 0 ? id : (playing ? 0 : dev.writeEvent(InputEvent.EV_FF, id, 1));
+		if(result < 0) {
+			if(!warned && result != -EventDevice.ENODEV) {
+				System.err.println("WARN: couldn't rumble "+dev.getDevicePath()+" (errno "+(-result)+")");
+				warned = true;
+			}
+			return;
+		}
+		playing = true;
+		warned = false;
+		current = magnitudes;
+	}
+
+	/**
+	 * @return Both magnitudes, each 0 to 0xffff, packed into one int: strong in the high half.
+	 */
+	static int pack(double strong, double weak) {
+		return magnitude(strong) << 16 | magnitude(weak);
+	}
+
+	private static int magnitude(double value) {
+		if(!(value > 0)) return 0;
+		return value >= 1 ? 0xFFFF : (int) (value * 0xFFFF);
+	}
+
+	/**
+	 * A timed change of the magnitudes, played by the writer thread.
+	 */
+	private static abstract class Pattern {
+		final long startNanos = System.nanoTime();
+
+		/**
+		 * @return The packed magnitudes elapsedMs into the pattern.
+		 */
+		abstract int magnitudesAt(long elapsedMs);
+
+		/**
+		 * @return When the magnitudes next change after elapsedMs, in milliseconds into the pattern,
+		 * or -1 if the pattern is over.
+		 */
+		abstract long nextChangeMs(long elapsedMs);
+	}
+
+	private static class Pulse extends Pattern {
+		private final int magnitudes, onMs, period, count;
+
+		Pulse(int magnitudes, int onMs, int offMs, int count) {
+			this.magnitudes = magnitudes;
+			this.onMs = onMs;
+			this.period = onMs + offMs;
+			this.count = count;
+		}
+
+		private boolean over(long elapsedMs) {
+			return count > 0 && elapsedMs >= (long) count * period;
+		}
+
+		@Override
+		int magnitudesAt(long elapsedMs) {
+			return !over(elapsedMs) && elapsedMs % period < onMs ? magnitudes : 0;
+		}
+
+		@Override
+		long nextChangeMs(long elapsedMs) {
+			if(over(elapsedMs)) return -1;
+			long periodStart = elapsedMs - elapsedMs % period;
+			return elapsedMs - periodStart < onMs ? periodStart + onMs : periodStart + period;
+		}
+	}
+
+	private static class Ramp extends Pattern {
+		private final int from, to, durationMs;
+
+		Ramp(int from, int to, int durationMs) {
+			this.from = from;
+			this.to = to;
+			this.durationMs = durationMs;
+		}
+
+		@Override
+		int magnitudesAt(long elapsedMs) {
+			if(elapsedMs >= durationMs) return to;
+			return interpolate(from >>> 16, to >>> 16, elapsedMs) << 16 | interpolate(from & 0xFFFF, to & 0xFFFF, elapsedMs);
+		}
+
+		private int interpolate(int a, int b, long elapsedMs) {
+			return (int) (a + (b - a) * elapsedMs / durationMs);
+		}
+
+		@Override
+		long nextChangeMs(long elapsedMs) {
+			return elapsedMs >= durationMs ? -1 : Math.min(elapsedMs + RAMP_STEP_MS, durationMs);
+		}
+	}
+}